@@ -90,6 +90,54 @@ dependencies {
 	testRuntimeOnly("org.slf4j:slf4j-nop:1.7.32")
 }
 
+// Multi-release JAR: classes in src/main/java21 replace their Java 8 versions when the MID server runs on Java 21 or
+// later. They are compiled against the main classes and packaged under META-INF/versions/21.
+sourceSets {
+	create("java21") {
+		java {
+			compileClasspath += sourceSets.main.get().output
+			srcDir("src/main/java21")
+		}
+	}
+}
+
+val java21Implementation by configurations.getting {
+	extendsFrom(configurations.implementation.get())
+}
+
+tasks.named<JavaCompile>("compileJava21Java") {
+	// Gradle downloads a JDK 21 for this if none is installed.
+	javaCompiler.set(javaToolchains.compilerFor {
+		languageVersion.set(JavaLanguageVersion.of(21))
+	})
+	options.release.set(21)
+}
+
+tasks.jar {
+	manifest {
+		attributes["Multi-Release"] = "true"
+	}
+	into("META-INF/versions/21") {
+		from(sourceSets["java21"].output)
+	}
+}
+
+// Runs the unit tests on Java 21 as well. The java21 classes come first on the classpath, so they replace their Java 8
+// versions as the multi-release JAR would.
+val testJava21 = task<Test>("testJava21") {
+	description = "Runs the unit tests on Java 21, with the Java 21 versions of the multi-release classes."
+	group = "verification"
+
+	javaLauncher.set(javaToolchains.launcherFor {
+		languageVersion.set(JavaLanguageVersion.of(21))
+	})
+	testClassesDirs = sourceSets.test.get().output.classesDirs
+	classpath = sourceSets["java21"].output + sourceSets.test.get().runtimeClasspath
+	shouldRunAfter("test")
+}
+
+tasks.check { dependsOn(testJava21) }
+
 // Integration test definition based on:
 // https://docs.gradle.org/current/userguide/java_testing.html#sec:configuring_java_integration_tests
 sourceSets {
@@ -131,6 +179,44 @@ val integrationTest = task<Test>("integrationTest") {
 
 tasks.check { dependsOn(integrationTest) }
 
+// JMH benchmark definition, mirroring the integration test source set above.
+sourceSets {
+	create("jmh") {
+		java {
+			// Requires main sourceSet to build and run
+			compileClasspath += sourceSets.main.get().output
+			runtimeClasspath += sourceSets.main.get().output
+			srcDir("src/jmh/java")
+		}
+	}
+}
+
+val jmhImplementation by configurations.getting {
+	extendsFrom(configurations.implementation.get())
+}
+
+val jmhAnnotationProcessor by configurations.getting
+
+dependencies {
+	jmhImplementation("org.openjdk.jmh:jmh-core:1.37")
+	jmhAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// Create the gradle task so we can run `./gradlew jmh`.
+// Pass a benchmark regex with `-Pjmh.includes=ExtractKeys` to run a subset.
+val jmh = task<JavaExec>("jmh") {
+	description = "Runs JMH benchmarks."
+	group = "verification"
+
+	classpath = sourceSets["jmh"].runtimeClasspath
+	mainClass.set("org.openjdk.jmh.Main")
+	val resultsFile = layout.buildDirectory.file("reports/jmh/results.json").get().asFile
+	doFirst { resultsFile.parentFile.mkdirs() }
+	// The gc profiler reports allocation rate and bytes allocated per operation.
+	args("-prof", "gc", "-rf", "json", "-rff", resultsFile.path)
+	(project.findProperty("jmh.includes") as String?)?.let { args(it) }
+}
+
 // Common test settings
 tasks.withType<Test> {
 	testLogging {
@@ -147,11 +233,15 @@ tasks.withType<Test> {
 tasks.register<Jar>("uberJar") {
 	manifest {
 		attributes["Main-Class"] = "com.snc.discovery.CredentialResolver"
+		attributes["Multi-Release"] = "true"
 	}
 
 	archiveClassifier.set("uber")
 
 	from(sourceSets.main.get().output)
+	into("META-INF/versions/21") {
+		from(sourceSets["java21"].output)
+	}
 
 	dependsOn(configurations.runtimeClasspath)
 	from({
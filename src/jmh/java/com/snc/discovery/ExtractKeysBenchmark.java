@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and extraction of a Vault response body, per secret engine shape. Run with the gc profiler to compare bytes
+ * allocated per operation between the streaming parser and the tree based parsing it replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExtractKeysBenchmark {
+    private static final Gson gson = new Gson();
+
+    @Param({"kv-v1", "kv-v2", "aws", "ad", "snmpv3"})
+    public String shape;
+
+    private byte[] body;
+    private VaultSecret secret;
+    private CredentialResolver resolver;
+    private PrintStream stderr;
+
+    @Setup
+    public void setup() throws IOException {
+        stderr = Payloads.silenceStderr();
+        body = Payloads.utf8(Payloads.forShape(shape));
+        resolver = new CredentialResolver(p -> null);
+        secret = streamingSecret();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setErr(stderr);
+    }
+
+    /**
+     * The resolver's full extraction: stream the body and map the aliased fields onto the output keys.
+     */
+    @Benchmark
+    public Map<String, String> extractKeys() throws IOException {
+        return resolver.extractKeys(streamingSecret());
+    }
+
+    /**
+     * Mapping only: the aliased fields of an already parsed secret onto the output keys.
+     */
+    @Benchmark
+    public Map<String, String> mapFields() {
+        return resolver.extractKeys(secret);
+    }
+
+    /**
+     * Parsing only, on the streaming path: the aliased fields of data (or data.data) and nothing else.
+     */
+    @Benchmark
+    public Map<String, String> streaming() throws IOException {
+        return streamingSecret().getData();
+    }
+
+    /**
+     * Parsing only, as it was before streaming: buffer the body into a String, build the full JsonObject tree and
+     * probe it for every alias.
+     */
+    @Benchmark
+    public Map<String, String> tree() {
+        String response = new Scanner(new ByteArrayInputStream(body)).useDelimiter("\\A").next();
+        JsonObject data = gson.fromJson(response, JsonObject.class).getAsJsonObject("data");
+        if (data.has("data")) {
+            data = data.get("data").getAsJsonObject();
+        }
+
+        Map<String, String> fields = new HashMap<>();
+        for (String field : CredentialResolver.SECRET_FIELDS) {
+            if (data.has(field)) {
+                fields.put(field, data.get(field).getAsString());
+            }
+        }
+        return fields;
+    }
+
+    private VaultSecret streamingSecret() throws IOException {
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8)) {
+            return VaultSecretReader.read(reader, CredentialResolver.SECRET_FIELDS);
+        }
+    }
+}
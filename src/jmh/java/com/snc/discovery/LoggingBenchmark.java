@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import static com.snc.discovery.CredentialResolver.*;
+
+/**
+ * <p>The per lookup log lines, written by 8 threads at once: the synchronized System.err calls the resolver used to
+ * make, against {@link ResolverLog}. stderr is silenced, so this measures the cost to the calling thread, not the
+ * terminal.</p>
+ *
+ * <p>The calling threads produce far more messages than any MID server would, so the async log runs with a full queue
+ * and drops most of them. Its numbers are the cost of a queue offer, which is what a lookup pays.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+@State(Scope.Benchmark)
+public class LoggingBenchmark {
+    private static final String ID = "secret/data/ssh";
+
+    @Param({"info", "debug"})
+    public String level;
+
+    private PrintStream stderr;
+
+    @Setup
+    public void setup() {
+        stderr = Payloads.silenceStderr();
+        ResolverLog.setLevel(ResolverLog.parseLevel(PROP_LOG_LEVEL, level));
+    }
+
+    @TearDown
+    public void tearDown() {
+        ResolverLog.flush();
+        ResolverLog.setLevel(ResolverLog.DEFAULT_LEVEL);
+        System.setErr(stderr);
+    }
+
+    /**
+     * What every Vault request used to log: a println and the field source printf, both holding the System.err lock.
+     */
+    @Benchmark
+    public void systemErr() {
+        System.err.println("Successfully queried Vault for credential id: " + ID);
+        System.err.printf("Setting values from fields %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s%n",
+            VAL_USER, "username",
+            VAL_PSWD, null,
+            VAL_PKEY, "private_key",
+            VAL_PASSPHRASE, "passphrase",
+            VAL_AUTHPROTO, null,
+            VAL_AUTHKEY, null,
+            VAL_PRIVPROTO, null,
+            VAL_PRIVKEY, null,
+            VAL_BEARER, null);
+    }
+
+    /**
+     * The same messages through the async log, guarded as in extractKeys. At info level the field sources are never
+     * formatted at all.
+     */
+    @Benchmark
+    public void resolverLog() {
+        ResolverLog.info("Successfully queried Vault for credential id: %s", ID);
+        if (ResolverLog.isEnabled(ResolverLog.Level.DEBUG)) {
+            ResolverLog.debug("Setting values from fields %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s",
+                VAL_USER, "username",
+                VAL_PSWD, null,
+                VAL_PKEY, "private_key",
+                VAL_PASSPHRASE, "passphrase",
+                VAL_AUTHPROTO, null,
+                VAL_AUTHKEY, null,
+                VAL_PRIVPROTO, null,
+                VAL_PRIVKEY, null,
+                VAL_BEARER, null);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end {@link CredentialResolver#resolve(Map)} against a local stub Vault Agent: property lookup, HTTP round
+ * trip, extraction and validation. SampleTime mode reports latency percentiles.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveBenchmark {
+    private static final String ID = "secret/data/ssh";
+
+    // Max seconds to cache a credential, 0 measures the uncached network path.
+    @Param({"0", "300"})
+    public String cacheMaxTtl;
+
+    private StubVaultAgent agent;
+    private CredentialResolver resolver;
+    private Map<String, String> args;
+    private PrintStream stderr;
+
+    @Setup
+    public void setup() throws IOException {
+        stderr = Payloads.silenceStderr();
+        agent = new StubVaultAgent().respond(ID, Payloads.KV_V2);
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put(CredentialResolver.PROP_ADDRESS, agent.getAddress());
+        properties.put(CredentialResolver.PROP_CACHE_MAX_TTL, cacheMaxTtl);
+        resolver = new CredentialResolver(properties::get);
+
+        args = new HashMap<>();
+        args.put(CredentialResolver.ARG_ID, ID);
+        args.put(CredentialResolver.ARG_TYPE, "ssh_private_key");
+    }
+
+    @TearDown
+    public void tearDown() {
+        agent.close();
+        HttpClientRegistry.closeAll();
+        System.setErr(stderr);
+    }
+
+    @Benchmark
+    public Map resolve() throws IOException {
+        return resolver.resolve(args);
+    }
+}
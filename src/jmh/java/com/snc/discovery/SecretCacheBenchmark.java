@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.snc.discovery.CredentialResolver.*;
+
+/**
+ * <p>Cache hits, with the values held on the heap against encrypted off-heap. An off-heap hit
+ * pays for an AES-GCM decryption and a fresh map, an on-heap hit returns the cached map itself.</p>
+ *
+ * <p>Setup also prints the heap each cached credential takes, measured around filling the cache, as "heap bytes per
+ * entry". Each credential is a user, a password and a ~1.7KB private key.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SecretCacheBenchmark {
+    private static final int ENTRIES = 10_000;
+
+    @Param({"heap", "off-heap"})
+    public String storage;
+
+    private SecretCache cache;
+    private String[] ids;
+
+    @Setup
+    public void setup() {
+        cache = new SecretCache(ENTRIES, storage.equals("heap") ? SecretCache.ON_HEAP : OffHeapSecretStorage.INSTANCE);
+        ids = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            ids[i] = "secret/data/ssh-" + i;
+        }
+        // Warms up the cipher and the key before measuring.
+        cache.put(ids[0], credential(0), Long.MAX_VALUE / 2);
+
+        long before = usedHeap();
+        for (int i = 0; i < ENTRIES; i++) {
+            cache.put(ids[i], credential(i), Long.MAX_VALUE / 2);
+        }
+        long after = usedHeap();
+        System.out.printf("%nheap bytes per entry (%s): %d%n", storage, (after - before) / ENTRIES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        cache.clear();
+    }
+
+    @Benchmark
+    public Map<String, String> hit() {
+        return cache.get(ids[ThreadLocalRandom.current().nextInt(ENTRIES)]);
+    }
+
+    // As extracted from a Vault response, which is what the cache holds.
+    private static Map<String, String> credential(int i) {
+        return new CredentialValues.Builder()
+            .put(VAL_USER, "user-" + i)
+            .put(VAL_PSWD, "password-" + i)
+            .put(VAL_PKEY, Payloads.privateKey() + i)
+            .build();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
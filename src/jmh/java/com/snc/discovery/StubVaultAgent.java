@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A minimal local HTTP server answering GET /v1/&lt;id&gt; with canned Vault responses, so end to end benchmarks
+ * measure the resolver rather than a real Vault Agent.
+ */
+final class StubVaultAgent implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, byte[]> responses = new ConcurrentHashMap<>();
+
+    StubVaultAgent() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(8, r -> {
+            Thread t = new Thread(r, "stub-vault-agent");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.createContext("/v1/", exchange -> {
+            byte[] body = responses.get(exchange.getRequestURI().getPath().substring("/v1/".length()));
+            int status = body != null ? 200 : 404;
+            if (body == null) {
+                body = Payloads.utf8("{\"errors\":[]}");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    StubVaultAgent respond(String id, String json) {
+        responses.put(id, Payloads.utf8(json));
+        return this;
+    }
+
+    String getAddress() {
+        return String.format("http://%s:%d", server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.SSLContext;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link TLSConfig#build()} with a custom CA in PEM format, as configured through the CA MID server property, for a
+ * single certificate and for a root plus intermediate bundle.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TLSConfigBenchmark {
+    @Param({"ca.pem", "ca-bundle.pem"})
+    public String resource;
+
+    private String pem;
+
+    @Setup
+    public void setup() {
+        pem = Payloads.resource(resource);
+    }
+
+    /**
+     * What every lookup pays once the trust material for the PEM is cached.
+     */
+    @Benchmark
+    public SSLContext buildWithPem() throws TLSConfig.TLSException {
+        return new TLSConfig().verify(true).pemUTF8(pem).build().getSslContext();
+    }
+
+    /**
+     * What the first lookup after a CA change pays: parsing the bundle and building the trust store.
+     */
+    @Benchmark
+    public SSLContext buildWithPemUncached() throws TLSConfig.TLSException {
+        TLSConfig.invalidate(pem);
+        return new TLSConfig().verify(true).pemUTF8(pem).build().getSslContext();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CredentialResolver#validateResult(Map, CredentialResolver.CredentialType)} for each credential type, against
+ * a result holding exactly the type's expected fields.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidateResultBenchmark {
+    @Param({"basic", "windows", "ssh_password", "vmware", "jdbc", "jms", "aws", "ssh_private_key", "sn_cfg_ansible",
+        "sn_disco_certmgmt_certificate_ca", "cfg_chef_credentials", "infoblox", "api_key", "snmpv3", "bearer"})
+    public String type;
+
+    private CredentialResolver resolver;
+    private CredentialResolver.CredentialType credentialType;
+    private Map<String, String> result;
+
+    @Setup
+    public void setup() {
+        resolver = new CredentialResolver(p -> null);
+        credentialType = CredentialResolver.CredentialType.valueOf(type);
+        result = new HashMap<>();
+        for (String field : credentialType.expectedFields()) {
+            result.put(field, "value");
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> validate() {
+        resolver.validateResult(result, credentialType);
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Counts how often each credential id is resolved and persists the counts to a local file, so that after a restart
+ * the most used credentials can be prefetched before the first discovery wave asks for them.</p>
+ *
+ * <p>The file holds credential ids and counts only, never secret values. Counts carry over across restarts but are
+ * halved every time the file is loaded, so that ids which are no longer used drop out of the top over time.</p>
+ */
+final class AccessProfile {
+    // Distinct ids tracked at most, so that a scan of many one-off ids can't grow the profile without bound.
+    static final int MAX_IDS = 10_000;
+    private static final String HEADER = "# Credential ids most used by the Vault credential resolver and how often they were resolved. Holds no secrets.";
+
+    private final Path path;
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    AccessProfile(Path path) {
+        this.path = path;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Adds the counts of the file, halved, to this profile. A missing file is an empty profile.
+     */
+    void load() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (line.startsWith("#") || tab < 0) {
+                    continue;
+                }
+                long count;
+                try {
+                    count = Long.parseLong(line.substring(0, tab)) / 2;
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (count > 0 && counts.size() < MAX_IDS) {
+                    counts.computeIfAbsent(line.substring(tab + 1), id -> new LongAdder()).add(count);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // First start with this profile.
+        }
+    }
+
+    void record(String id) {
+        LongAdder count = counts.get(id);
+        if (count == null) {
+            // Ids with line breaks could not be read back from the file.
+            if (counts.size() >= MAX_IDS || id.indexOf('\n') >= 0 || id.indexOf('\r') >= 0) {
+                return;
+            }
+            count = counts.computeIfAbsent(id, k -> new LongAdder());
+        }
+        count.increment();
+        if (!dirty) {
+            // Read first, so that the hot path doesn't keep writing a shared field.
+            dirty = true;
+        }
+    }
+
+    /**
+     * @return Up to n ids, most used first
+     */
+    List<String> top(int n) {
+        List<Map.Entry<String, Long>> sorted = snapshot();
+        List<String> ids = new ArrayList<>(Math.min(n, sorted.size()));
+        for (int i = 0; i < n && i < sorted.size(); i++) {
+            ids.add(sorted.get(i).getKey());
+        }
+        return ids;
+    }
+
+    /**
+     * Writes the profile to its file if it changed since it was last written. The file is replaced atomically, so a
+     * crash while saving leaves the previous profile intact.
+     */
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        // Before taking the snapshot, so that a record() racing with the save marks the profile dirty again.
+        dirty = false;
+        Path dir = path.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            if (Files.getFileStore(tmp).supportsFileAttributeView("posix")) {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            }
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Map.Entry<String, Long> entry : snapshot()) {
+                    writer.write(entry.getValue() + "\t" + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            dirty = true;
+            throw e;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // The counts, most used first.
+    private List<Map.Entry<String, Long>> snapshot() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.size());
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()));
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries;
+    }
+}
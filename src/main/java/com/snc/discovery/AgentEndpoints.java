@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>The Vault Agents a resolver sends requests to, as listed in {@link CredentialResolver#PROP_ADDRESS}, and how
+ * each of them is doing.</p>
+ *
+ * <p>Every request goes to the healthy Agent with the fewest requests outstanding, ties broken at random. Each Agent
+ * has its own {@link CircuitBreaker}: an Agent whose breaker opens is ejected, and is reinstated once a probe request
+ * succeeds. A retry prefers a different Agent than the attempt that failed, and a request that could not reach its
+ * Agent fails over to one it has not tried yet.</p>
+ *
+ * <p>State is kept per address rather than per configuration, so it survives unrelated property changes.</p>
+ */
+final class AgentEndpoints {
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final LongSupplier nanoClock;
+
+    AgentEndpoints() {
+        this(System::nanoTime);
+    }
+
+    // Visible for testing, with a fake clock.
+    AgentEndpoints(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Picks the Agent for a request. The caller must {@link Endpoint#release() release} the returned endpoint once
+     * the request completes, and report its outcome to the endpoint's breaker.
+     *
+     * @param addresses The configured Agent addresses
+     * @param avoid The endpoint a previous attempt failed on, used only if no other Agent is healthy, or null
+     * @param failureThreshold See {@link CircuitBreaker#tryAcquire(int, long)}
+     * @param openNanos See {@link CircuitBreaker#tryAcquire(int, long)}
+     * @return The endpoint, or null if every Agent's breaker is open
+     */
+    Endpoint acquire(List<String> addresses, Endpoint avoid, int failureThreshold, long openNanos) {
+        return acquire(addresses, avoid == null ? Collections.emptyList() : Collections.singletonList(avoid), false,
+            failureThreshold, openNanos);
+    }
+
+    /**
+     * Picks a healthy Agent that none of the given endpoints is, to fail a request over to. As with
+     * {@link #acquire(List, Endpoint, int, long)}, the caller must release the returned endpoint.
+     *
+     * @param tried The endpoints the request already failed on
+     * @return The endpoint, or null if every other Agent's breaker is open
+     */
+    Endpoint acquireOther(List<String> addresses, Collection<Endpoint> tried, int failureThreshold, long openNanos) {
+        return acquire(addresses, tried, true, failureThreshold, openNanos);
+    }
+
+    private Endpoint acquire(List<String> addresses, Collection<Endpoint> avoid, boolean onlyOthers, int failureThreshold, long openNanos) {
+        int n = addresses.size();
+        if (n == 1) {
+            Endpoint endpoint = endpoint(addresses.get(0));
+            if (onlyOthers && avoid.contains(endpoint)) {
+                return null;
+            }
+            return endpoint.tryAcquire(failureThreshold, openNanos) ? endpoint : null;
+        }
+
+        Endpoint[] candidates = new Endpoint[n];
+        for (int i = 0; i < n; i++) {
+            candidates[i] = endpoint(addresses.get(i));
+        }
+        // Starting the scan at a random offset breaks ties at random.
+        int offset = ThreadLocalRandom.current().nextInt(n);
+        boolean[] excluded = new boolean[n];
+        for (int round = 0; round < n; round++) {
+            int best = -1;
+            for (int k = 0; k < n; k++) {
+                int i = (offset + k) % n;
+                if (excluded[i]) {
+                    continue;
+                }
+                if (!candidates[i].breaker.isAvailable(failureThreshold, openNanos)
+                    || (onlyOthers && avoid.contains(candidates[i]))) {
+                    excluded[i] = true;
+                    continue;
+                }
+                if (best == -1 || isBetter(candidates[i], candidates[best], avoid)) {
+                    best = i;
+                }
+            }
+            if (best == -1) {
+                return null;
+            }
+            // Another thread may have taken a half-open endpoint's probe since isAvailable, then try the next best.
+            if (candidates[best].tryAcquire(failureThreshold, openNanos)) {
+                return candidates[best];
+            }
+            excluded[best] = true;
+        }
+        return null;
+    }
+
+    private static boolean isBetter(Endpoint candidate, Endpoint best, Collection<Endpoint> avoid) {
+        boolean avoidCandidate = avoid.contains(candidate);
+        if (avoid.contains(best) != avoidCandidate) {
+            return !avoidCandidate;
+        }
+        return candidate.outstanding.get() < best.outstanding.get();
+    }
+
+    // Package-private for tests, which look at an Agent's state.
+    Endpoint endpoint(String address) {
+        return endpoints.computeIfAbsent(address, a -> new Endpoint(a, new CircuitBreaker(nanoClock)));
+    }
+
+    static final class Endpoint {
+        private final String address;
+        private final CircuitBreaker breaker;
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        Endpoint(String address, CircuitBreaker breaker) {
+            this.address = address;
+            this.breaker = breaker;
+        }
+
+        String getAddress() {
+            return address;
+        }
+
+        CircuitBreaker getBreaker() {
+            return breaker;
+        }
+
+        int getOutstanding() {
+            return outstanding.get();
+        }
+
+        private boolean tryAcquire(int failureThreshold, long openNanos) {
+            if (!breaker.tryAcquire(failureThreshold, openNanos)) {
+                return false;
+            }
+            outstanding.incrementAndGet();
+            return true;
+        }
+
+        void release() {
+            outstanding.decrementAndGet();
+        }
+    }
+}
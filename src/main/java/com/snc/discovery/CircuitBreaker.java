@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.io.IOException;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>Tracks whether a Vault Agent is reachable, so that lookups fail fast while it is down instead of each one waiting
+ * for its own connection attempts to time out.</p>
+ *
+ * <p>The breaker opens after a number of consecutive failed requests. While open, requests are rejected until the open
+ * duration has passed, then a single request is let through as a probe (half-open). If the probe succeeds the breaker
+ * closes, otherwise it opens again for another open duration.</p>
+ *
+ * <p>Thresholds are passed on every call rather than fixed at construction, so that a change to the MID server
+ * properties applies without losing the breaker's state.</p>
+ */
+final class CircuitBreaker {
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final LongSupplier nanoClock;
+    private State state = State.CLOSED; // guarded by this
+    private int consecutiveFailures; // guarded by this
+    private long openedAtNanos; // guarded by this
+
+    CircuitBreaker() {
+        this(System::nanoTime);
+    }
+
+    // Visible for testing, with a fake clock.
+    CircuitBreaker(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Asks whether a request may be sent. Every permitted request must be followed by {@link #onSuccess()},
+     * {@link #onFailure(int)} or {@link #onAbandoned()}.
+     *
+     * @param failureThreshold Consecutive failures that open the breaker, 0 or less disables it
+     * @param openNanos How long the breaker stays open before it lets a probe through
+     * @return true if the request may be sent, false if it should be rejected
+     */
+    synchronized boolean tryAcquire(int failureThreshold, long openNanos) {
+        if (failureThreshold <= 0) {
+            return true;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (nanoClock.getAsLong() - openedAtNanos >= openNanos) {
+                    // This caller is the probe, everyone else keeps being rejected until it completes.
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether {@link #tryAcquire(int, long)} would currently permit a request, without taking the half-open probe.
+     */
+    synchronized boolean isAvailable(int failureThreshold, long openNanos) {
+        if (failureThreshold <= 0) {
+            return true;
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return nanoClock.getAsLong() - openedAtNanos >= openNanos;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if this success closed the breaker
+     */
+    synchronized boolean onSuccess() {
+        boolean closed = state != State.CLOSED;
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        return closed;
+    }
+
+    /**
+     * Ends a permitted request that was abandoned before it could tell whether Agent is up. If it was the half-open
+     * probe, the next request becomes the probe instead.
+     */
+    synchronized void onAbandoned() {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    /**
+     * @return true if this failure opened the breaker
+     */
+    synchronized boolean onFailure(int failureThreshold) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAtNanos = nanoClock.getAsLong();
+            return true;
+        }
+        return false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Thrown instead of sending a request while the breaker is open.
+     */
+    static final class OpenException extends IOException {
+        OpenException(String message) {
+            super(message);
+        }
+    }
+}
@@ -6,30 +6,77 @@
 package com.snc.discovery;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonObject;
+import org.apache.http.HttpEntity;
 import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.URIUtils;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 
-import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class CredentialResolver {
-    private static final CloseableHttpClient defaultHTTPClient = HttpClients.createDefault();
     private static final Gson gson = new Gson();
     private final Function<String, String> getProperty;
+    private volatile ResolverConfig config;
+    private volatile long configCheckedNanos; // when the properties were last found to match config
+    private volatile SecretCache cache;
+    private final SingleFlight<String, Map<String, String>> inFlight = new SingleFlight<>(ResolverMetrics.get()::recordCoalesced);
+    private final NegativeCache negativeCache = new NegativeCache();
+    private final ResolverMetrics metrics = ResolverMetrics.get();
+    private final AgentEndpoints endpoints = new AgentEndpoints();
+    private final Hedger hedger = new Hedger(task -> hedgeExecutor().execute(task));
+    private ExecutorService batchExecutor; // guarded by this
+    private int batchConcurrency; // guarded by this
+    private ScheduledExecutorService refreshScheduler; // guarded by this
+    private ExecutorService refreshExecutor; // guarded by this
+    private ExecutorService hedgeExecutor; // guarded by this
+    private volatile AccessProfile profile;
+    private ScheduledExecutorService profileScheduler; // guarded by this
+    private Thread profileShutdownHook; // guarded by this
+    private final CompletableFuture<Void> prefetched;
 
     public CredentialResolver(Function<String, String> getProperty) {
         this.getProperty = getProperty;
+        String profile = getProperty.apply(PROP_PREFETCH_PROFILE);
+        if (profile != null && !profile.trim().isEmpty()) {
+            // In the background, so that the MID server doesn't wait for Vault Agent to start up.
+            prefetched = CompletableFuture.runAsync(this::prefetch,
+                task -> ResolverExecutors.daemonThreadFactory("vault-credential-prefetch").newThread(task).start());
+        } else {
+            prefetched = CompletableFuture.completedFuture(null);
+        }
     }
 
     // Populated keys on resolve's input `Map args`
@@ -49,180 +96,971 @@ public class CredentialResolver {
     public static final String VAL_PRIVKEY = "privkey"; // the string privacy key for the credential
     public static final String VAL_BEARER = "bearer_token"; // the string brearer token for the credential
 
-    public static final String PROP_ADDRESS = "mid.external_credentials.vault.address"; // The address of Vault Agent, as resolvable from the MID server
+    public static final String PROP_ADDRESS = "mid.external_credentials.vault.address"; // The address of Vault Agent, as resolvable from the MID server. Several may be listed separated by commas, each request then goes to the healthy Agent with the fewest outstanding requests
     public static final String PROP_CA = "mid.external_credentials.vault.ca"; // The custom CA to trust in PEM format
     public static final String PROP_TLS_SKIP_VERIFY = "mid.external_credentials.vault.tls_skip_verify"; // Whether to skip TLS verification
+    public static final String PROP_MAX_CONNECTIONS_PER_ROUTE = "mid.external_credentials.vault.max_connections_per_route"; // Max pooled connections to each Vault Agent address, default 20
+    public static final String PROP_MAX_CONNECTIONS = "mid.external_credentials.vault.max_connections"; // Max pooled connections across all routes of a client, default 50
+    public static final String PROP_CACHE_MAX_TTL = "mid.external_credentials.vault.cache_max_ttl"; // Max seconds to cache a resolved credential, 0 (the default) disables caching
+    public static final String PROP_CACHE_MAX_ENTRIES = "mid.external_credentials.vault.cache_max_entries"; // Max number of cached credentials, default 1000
+    public static final String PROP_CACHE_OFF_HEAP = "mid.external_credentials.vault.cache_off_heap"; // Whether to keep cached credentials encrypted outside the Java heap, default false
+    public static final String PROP_NEGATIVE_CACHE_TTL = "mid.external_credentials.vault.negative_cache_ttl"; // Seconds to remember that Vault Agent answered a credential id with 403 or 404 and fail its lookups without a request, 0 (the default) disables the negative cache
+    public static final String PROP_BATCH_CONCURRENCY = "mid.external_credentials.vault.batch_concurrency"; // Max concurrent requests made by resolveAll, default 16
+    public static final String PROP_REFRESH_AHEAD_FRACTION = "mid.external_credentials.vault.refresh_ahead_fraction"; // Refresh hot cached credentials once this fraction of their TTL remains, e.g. 0.2. 0 (the default) disables refresh-ahead
+    public static final String PROP_REFRESH_AHEAD_MIN_HITS = "mid.external_credentials.vault.refresh_ahead_min_hits"; // Cache hits since it was fetched that make a credential hot enough to refresh ahead, default 2
+    public static final String PROP_CONNECT_TIMEOUT = "mid.external_credentials.vault.connect_timeout"; // Milliseconds to wait for a connection to Vault Agent, default 5000. 0 waits forever
+    public static final String PROP_SOCKET_TIMEOUT = "mid.external_credentials.vault.socket_timeout"; // Milliseconds to wait for data from Vault Agent, default 30000. 0 waits forever
+    public static final String PROP_CONNECTION_REQUEST_TIMEOUT = "mid.external_credentials.vault.connection_request_timeout"; // Milliseconds to wait for a free pooled connection, default 5000. 0 waits forever
+    public static final String PROP_RESOLVE_TIMEOUT = "mid.external_credentials.vault.resolve_timeout"; // Milliseconds a lookup may take, including retries, 0 (the default) for no limit
+    public static final String PROP_MAX_RETRIES = "mid.external_credentials.vault.max_retries"; // Retries of a request that failed with an IO error or status 429, 500, 502 or 503, default 0. With several addresses, a connection failure is also tried once on each other healthy Agent, whatever this is set to
+    public static final String PROP_RETRY_BACKOFF = "mid.external_credentials.vault.retry_backoff"; // Max milliseconds to wait before the first retry, doubled for each further retry, default 100. The actual wait is picked at random up to the max
+    public static final String PROP_RETRY_MAX_BACKOFF = "mid.external_credentials.vault.retry_max_backoff"; // Cap in milliseconds on the wait before a retry, default 2000
+    public static final String PROP_CIRCUIT_BREAKER_THRESHOLD = "mid.external_credentials.vault.circuit_breaker_threshold"; // Consecutive failed requests after which lookups fail fast without contacting Vault Agent, or with several addresses, after which the Agent is ejected. 0 disables the circuit breaker, the default is 0 for a single address and 3 for several
+    public static final String PROP_CIRCUIT_BREAKER_OPEN_TIME = "mid.external_credentials.vault.circuit_breaker_open_time"; // Milliseconds lookups fail fast before a single request probes Vault Agent again, default 5000
+    public static final String PROP_HEDGE_PERCENTILE = "mid.external_credentials.vault.hedge_percentile"; // Send a second, identical request once the first has taken longer than this percentile of Vault Agent request latencies, e.g. 95, and use whichever answers first. 0 (the default) disables hedging
+    public static final String PROP_HEDGE_MIN_DELAY = "mid.external_credentials.vault.hedge_min_delay"; // Min milliseconds to wait for the first request before hedging it, default 5
+    public static final String PROP_HEDGE_BUDGET = "mid.external_credentials.vault.hedge_budget"; // Max percentage of requests that may be hedged, default 10
+    public static final String PROP_STALE_MAX_AGE = "mid.external_credentials.vault.stale_max_age"; // Seconds after expiry a cached credential may still be returned while Vault Agent is failing, 0 (the default) disables serving stale credentials. Requires the cache
+    public static final String PROP_FIELD_ALIASES = "mid.external_credentials.vault.field_aliases"; // Extra secret fields to read credential values from, e.g. user=login|user_name,pswd=pass. They are tried after the built-in fields, in the order listed
+    public static final String PROP_PREFETCH_PROFILE = "mid.external_credentials.vault.prefetch_profile"; // Path of a local file in which to keep the most used credential ids and how often they were resolved, never their secrets. On startup the most used credentials are fetched into the cache in the background. Empty (the default) keeps no profile. Requires the cache
+    public static final String PROP_PREFETCH_COUNT = "mid.external_credentials.vault.prefetch_count"; // Max credentials to fetch on startup from the profile, default 100
+    public static final String PROP_LOG_LEVEL = "mid.external_credentials.vault.log_level"; // One of error, warn, info (the default) or debug. debug adds which secret field each credential value came from
+    public static final String PROP_METRICS_LOG_INTERVAL = "mid.external_credentials.vault.metrics_log_interval"; // Seconds between metrics snapshots logged to stderr, 0 (the default) disables logging. Metrics are always available over JMX
+
+    static final int DEFAULT_BATCH_CONCURRENCY = 16;
+    static final int DEFAULT_REFRESH_AHEAD_MIN_HITS = 2;
+    static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    static final int DEFAULT_SOCKET_TIMEOUT = 30000;
+    static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 5000;
+    static final int DEFAULT_RETRY_BACKOFF = 100;
+    static final int DEFAULT_RETRY_MAX_BACKOFF = 2000;
+    static final int DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 5000;
+    static final int DEFAULT_MULTI_AGENT_CIRCUIT_BREAKER_THRESHOLD = 3;
+    static final int DEFAULT_HEDGE_MIN_DELAY = 5;
+    static final int DEFAULT_HEDGE_BUDGET = 10;
+    static final int DEFAULT_PREFETCH_COUNT = 100;
+    // Statuses Vault Agent returns while it or Vault is restarting, overloaded or rate limiting.
+    private static final Set<Integer> RETRYABLE_STATUSES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(429, 500, 502, 503)));
+    // How often cached credentials are checked for being due a refresh, and how many refreshes may run at once.
+    private static final long REFRESH_AHEAD_INTERVAL_MILLIS = 1000;
+    private static final long PROFILE_SAVE_INTERVAL_SECONDS = 60;
+    // How often lookups read the MID server properties to pick up changes.
+    static final long CONFIG_CHECK_INTERVAL_MILLIS = 1000;
+    private static final int REFRESH_AHEAD_CONCURRENCY = 2;
 
     /**
      * Resolve a credential.
+     *
+     * @return The credential's values, keyed by the VAL_ constants. The map is unmodifiable
      */
     public Map resolve(Map args) throws IOException {
-        String vaultAddress = getProperty.apply(PROP_ADDRESS);
-        String vaultCA = getProperty.apply(PROP_CA);
-        String tlsSkipVerifyRaw = getProperty.apply(PROP_TLS_SKIP_VERIFY);
+        long start = System.nanoTime();
+        try {
+            return doResolve(args, start);
+        } catch (IOException | RuntimeException e) {
+            metrics.recordError(e);
+            throw e;
+        } finally {
+            metrics.recordResolve(System.nanoTime() - start);
+        }
+    }
+
+    private Map doResolve(Map args, long startNanos) throws IOException {
+        ResolverConfig config = config();
+        // Coalesced lookups wait for the leader, whose deadline is at most as far off as their own.
+        Deadline deadline = Deadline.after(startNanos, config.getResolveTimeout());
+
+        String id = (String) args.get(ARG_ID);
+        CredentialType type = lookupByName((String) args.get(ARG_TYPE));
+        recordAccess(id);
 
-        if (vaultAddress == null || vaultAddress.equals("")) {
-            throw new RuntimeException(String.format("MID server property %s is empty but required", PROP_ADDRESS));
+        SecretCache cache = config.getCacheMaxTtl() > 0 && id != null ? cache(config) : null;
+        Map<String, String> values = null;
+        if (cache != null) {
+            values = cache.get(id);
+            if (values != null) {
+                metrics.recordCacheHit();
+            } else {
+                metrics.recordCacheMiss();
+            }
         }
+        if (values == null) {
+            if (id != null) {
+                HttpResponseException knownFailure = negativeCacheGet(config, id);
+                if (knownFailure != null) {
+                    throw knownFailure;
+                }
+                try {
+                    // Concurrent lookups of the same id share one request to Vault Agent.
+                    values = inFlight.execute(id, () -> fetch(config, id, cache, false, deadline));
+                } catch (IOException e) {
+                    values = staleOrThrow(config, id, cache, e);
+                }
+            } else {
+                values = fetch(config, id, cache, false, deadline);
+            }
+        }
+
+        return validated(values, type);
+    }
 
-        boolean tlsSkipVerify = false;
-        if (tlsSkipVerifyRaw != null && !tlsSkipVerifyRaw.equals("")) {
-            tlsSkipVerify = Boolean.parseBoolean(tlsSkipVerifyRaw);
+    /**
+     * Resolve a credential without blocking the calling thread.
+     *
+     * <p>Cache hits complete before this returns. A lookup of an id that is already being fetched shares that fetch's
+     * result without holding a thread while it waits. Other lookups are queued on the executor that also runs
+     * {@link #resolveAll(Collection)}, so at most {@link #PROP_BATCH_CONCURRENCY} requests to Vault Agent are made at
+     * once however many lookups are outstanding. {@link #PROP_RESOLVE_TIMEOUT} counts from this call, including the
+     * time spent queued.</p>
+     *
+     * @return A future completed with the credential, or exceptionally with the exception {@link #resolve(Map)} would
+     * have thrown
+     */
+    public CompletableFuture<Map> resolveAsync(Map args) {
+        long start = System.nanoTime();
+        CompletableFuture<Map> result;
+        try {
+            result = doResolveAsync(args, start);
+        } catch (RuntimeException e) {
+            result = new CompletableFuture<>();
+            result.completeExceptionally(e);
         }
+        return result.whenComplete((value, error) -> {
+            if (error != null) {
+                metrics.recordError(unwrap(error));
+            }
+            metrics.recordResolve(System.nanoTime() - start);
+        });
+    }
+
+    private CompletableFuture<Map> doResolveAsync(Map args, long startNanos) {
+        ResolverConfig config = config();
+        Deadline deadline = Deadline.after(startNanos, config.getResolveTimeout());
 
         String id = (String) args.get(ARG_ID);
+        CredentialType type = lookupByName((String) args.get(ARG_TYPE));
+        recordAccess(id);
 
-        String body = send(new HttpGet(vaultAddress + "/v1/" + id), vaultCA, tlsSkipVerify);
-        System.err.println("Successfully queried Vault for credential id: "+id);
+        SecretCache cache = config.getCacheMaxTtl() > 0 && id != null ? cache(config) : null;
+        if (cache != null) {
+            Map<String, String> values = cache.get(id);
+            if (values != null) {
+                metrics.recordCacheHit();
+                return CompletableFuture.completedFuture(validated(values, type));
+            }
+            metrics.recordCacheMiss();
+        }
+        HttpResponseException knownFailure = id != null ? negativeCacheGet(config, id) : null;
+        if (knownFailure != null) {
+            CompletableFuture<Map> failed = new CompletableFuture<>();
+            failed.completeExceptionally(knownFailure);
+            return failed;
+        }
 
-        Map<String, String> result = extractKeys(body);
-        CredentialType type = lookupByName((String) args.get(ARG_TYPE));
-        validateResult(result, type);
-        return result;
+        ExecutorService executor = batchExecutor(config.getBatchConcurrency());
+        CompletableFuture<Map<String, String>> fetched;
+        if (id != null) {
+            fetched = inFlight.executeAsync(id, executor, () -> fetch(config, id, cache, false, deadline));
+        } else {
+            fetched = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch(config, null, null, false, deadline);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+        return fetched.handle((values, error) -> {
+            if (error != null) {
+                Throwable cause = unwrap(error);
+                if (!(cause instanceof IOException)) {
+                    throw new CompletionException(cause);
+                }
+                try {
+                    values = staleOrThrow(config, id, cache, (IOException) cause);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }
+            return validated(values, type);
+        });
+    }
+
+    private Map validated(Map<String, String> values, CredentialType type) {
+        // Cached and coalesced results are shared with every caller, which is safe as CredentialValues is immutable.
+        validateResult(values, type);
+        return values;
+    }
+
+    // A future's exception, without the CompletionException its dependent stages wrap it in.
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
     }
 
     /**
-     * Return the ServiceNow API version supported by this class.
+     * Resolve many credentials at once, e.g. to warm up the cache before a discovery schedule.
+     *
+     * <p>Each entry of args is a resolve input. Entries are deduplicated by {@link #ARG_ID}, the first entry for an id
+     * wins. Each lookup is made as by {@link #resolveAsync(Map)}, so they run concurrently, at most
+     * {@link #PROP_BATCH_CONCURRENCY} at a time, and a failed lookup does not affect the others.</p>
+     *
+     * @return A result for every distinct id, in the order the ids first appeared
      */
-    public String getVersion() {
-        return "1.0";
+    public Map<String, ResolveResult> resolveAll(Collection<Map> args) {
+        Map<String, Map> byId = new LinkedHashMap<>();
+        for (Map arg : args) {
+            byId.putIfAbsent((String) arg.get(ARG_ID), arg);
+        }
+
+        // Invalid properties fail the whole call rather than each lookup.
+        batchExecutor(config().getBatchConcurrency());
+        // Only the calling thread waits. A task on the batch executor that blocked on another lookup's fetch could
+        // hold the thread that fetch is queued for.
+        Map<String, Future<Map>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, Map> entry : byId.entrySet()) {
+            pending.put(entry.getKey(), resolveAsync(entry.getValue()));
+        }
+
+        Map<String, ResolveResult> results = new LinkedHashMap<>();
+        boolean interrupted = false;
+        for (Map.Entry<String, Future<Map>> entry : pending.entrySet()) {
+            Future<Map> future = entry.getValue();
+            if (interrupted) {
+                future.cancel(true);
+                results.put(entry.getKey(), ResolveResult.failure(new InterruptedIOException("Interrupted while resolving credentials")));
+                continue;
+            }
+            try {
+                results.put(entry.getKey(), ResolveResult.success(future.get()));
+            } catch (InterruptedException e) {
+                interrupted = true;
+                future.cancel(true);
+                results.put(entry.getKey(), ResolveResult.failure(new InterruptedIOException("Interrupted while resolving credentials")));
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                results.put(entry.getKey(), ResolveResult.failure((Exception) cause));
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
     }
 
-    public static String send(HttpUriRequest req, String vaultCA, boolean tlsSkipVerify) throws IOException {
-        SSLContext sslContext;
+    private synchronized ExecutorService batchExecutor(int concurrency) {
+        if (concurrency < 1) {
+            throw new RuntimeException(String.format("MID server property %s must be at least 1", PROP_BATCH_CONCURRENCY));
+        }
+        if (batchExecutor == null || batchConcurrency != concurrency) {
+            if (batchExecutor != null) {
+                // Lets already submitted lookups finish, new ones go to the resized executor.
+                batchExecutor.shutdown();
+            }
+            batchExecutor = ResolverExecutors.newBoundedExecutor("vault-credential-batch", concurrency);
+            batchConcurrency = concurrency;
+        }
+        return batchExecutor;
+    }
+
+    /**
+     * The outcome of resolving one credential id as part of {@link #resolveAll(Collection)}: either the resolved
+     * credential or the exception {@link #resolve(Map)} threw for it.
+     */
+    public static final class ResolveResult {
+        private final Map result;
+        private final Exception error;
+
+        private ResolveResult(Map result, Exception error) {
+            this.result = result;
+            this.error = error;
+        }
+
+        static ResolveResult success(Map result) {
+            return new ResolveResult(result, null);
+        }
+
+        static ResolveResult failure(Exception error) {
+            return new ResolveResult(null, error);
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return The resolved credential, or null if resolving it failed
+         */
+        public Map getResult() {
+            return result;
+        }
+
+        /**
+         * @return Why resolving the credential failed, or null if it succeeded
+         */
+        public Exception getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Returns the configuration for the current MID server properties. The properties are read at most once every
+     * {@link #CONFIG_CHECK_INTERVAL_MILLIS}, other calls return the current snapshot without reading any, see
+     * {@link #reloadConfig()}.
+     */
+    ResolverConfig config() {
+        ResolverConfig current = config;
+        if (current != null && System.nanoTime() - configCheckedNanos < TimeUnit.MILLISECONDS.toNanos(CONFIG_CHECK_INTERVAL_MILLIS)) {
+            return current;
+        }
+        return reloadConfig();
+    }
+
+    /**
+     * Reads the MID server properties and returns the configuration for them. It is only parsed and validated again,
+     * and the HTTP clients looked up again, when a property value has changed since the properties were last read.
+     */
+    ResolverConfig reloadConfig() {
+        long now = System.nanoTime();
+        String[] rawValues = ResolverConfig.read(getProperty);
+        ResolverConfig current = config;
+        if (current != null && current.matches(rawValues)) {
+            configCheckedNanos = now;
+            return current;
+        }
+
+        synchronized (this) {
+            current = config;
+            if (current != null && current.matches(rawValues)) {
+                configCheckedNanos = now;
+                return current;
+            }
+            // A snapshot that fails to parse is not installed, nor is the check time updated, so that once the check
+            // interval has passed every call reports the failure until the properties are fixed.
+            ResolverConfig updated = ResolverConfig.parse(rawValues);
+            if (current != null && !Objects.equals(current.getVaultCA(), updated.getVaultCA())) {
+                // The SSLContext built from the CA is cached process-wide, drop it once the property no longer uses it.
+                TLSConfig.invalidate(current.getVaultCA());
+            }
+            if (current != null && !updated.resolvesLike(current)) {
+                // Cached credentials and errors are keyed by id alone, they may not be what the new Agents or aliases
+                // give.
+                if (cache != null) {
+                    cache.clear();
+                }
+                negativeCache.clear();
+            }
+            if (cache != null && cache.getStorage() != storage(updated)) {
+                // Entries can't move between storages, start over with an empty cache.
+                cache.clear();
+                cache = null;
+            }
+            if (cache != null) {
+                cache.resize(updated.getCacheMaxEntries());
+                cache.retainStale(TimeUnit.SECONDS.toNanos(updated.getStaleMaxAge()));
+            }
+            if (updated.getNegativeCacheTtl() <= 0) {
+                negativeCache.clear();
+            }
+            if (updated.getCacheMaxTtl() > 0 && updated.getRefreshAheadFraction() > 0) {
+                startRefreshAhead();
+            }
+            if (!Objects.equals(current != null ? current.getPrefetchProfile() : null, updated.getPrefetchProfile())) {
+                switchProfile(updated.getPrefetchProfile());
+            }
+            metrics.logEvery(updated.getMetricsLogInterval());
+            ResolverLog.setLevel(updated.getLogLevel());
+            config = updated;
+            configCheckedNanos = now;
+            if (current != null) {
+                current.releaseHttpClients();
+            }
+            return updated;
+        }
+    }
+
+    private Map<String, String> fetch(ResolverConfig config, String id, SecretCache cache, boolean refresh,
+                                      Deadline deadline) throws IOException {
+        if (cache != null && !refresh) {
+            // A call that completed while we were becoming the leader may have already populated the cache.
+            Map<String, String> cached = cache.get(id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        VaultSecret secret;
         try {
-            TLSConfig tlsConfig = new TLSConfig().verify(!tlsSkipVerify);
-            if (vaultCA != null && !vaultCA.equals("")) {
-                tlsConfig = tlsConfig.pemUTF8(vaultCA);
+            secret = readSecret(config, id, deadline);
+        } catch (HttpResponseException e) {
+            if (id != null && config.getNegativeCacheTtl() > 0 && NegativeCache.isCacheable(e)) {
+                negativeCache.put(id, e, TimeUnit.SECONDS.toNanos(config.getNegativeCacheTtl()), config.getCacheMaxEntries());
             }
-            sslContext = tlsConfig.build().getSslContext();
-        } catch (TLSConfig.TLSException e) {
-            throw new RuntimeException("Failed to configure SSL context: " + e);
+            throw e;
+        }
+        ResolverLog.info("Successfully queried Vault for credential id: %s", id);
+        if (id != null && config.getNegativeCacheTtl() > 0) {
+            // E.g. a refresh found that the path exists again.
+            negativeCache.remove(id);
         }
 
-        CloseableHttpClient httpClient;
-        if (sslContext != null) {
-            SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(
-                sslContext,
-                null,
-                null,
-                SSLConnectionSocketFactory.getDefaultHostnameVerifier());
-            httpClient = HttpClients.custom()
-                .setSSLSocketFactory(sslsf)
-                .build();
-        } else {
-            httpClient = defaultHTTPClient;
+        Map<String, String> values = extractKeys(secret, config.getExtractionPlan());
+        if (cache != null && !values.isEmpty()) {
+            cache.put(id, values, TimeUnit.SECONDS.toNanos(cacheTtl(secret, config.getCacheMaxTtl())));
         }
+        return values;
+    }
 
-        String body = null;
-        req.setHeader("accept", "application/json");
-        req.setHeader("X-Vault-Request", "true");
-        try (CloseableHttpResponse response = httpClient.execute(req)) {
-            if (response.getEntity() != null) {
-                Scanner s = new Scanner(response.getEntity().getContent()).useDelimiter("\\A");
-                body = s.hasNext() ? s.next() : "";
+    // The remembered 403 or 404 for an id, or null if lookups of it should go to Vault Agent.
+    private HttpResponseException negativeCacheGet(ResolverConfig config, String id) {
+        if (config.getNegativeCacheTtl() <= 0) {
+            return null;
+        }
+        HttpResponseException failure = negativeCache.get(id);
+        if (failure != null) {
+            metrics.recordNegativeCacheHit();
+        }
+        return failure;
+    }
+
+    /**
+     * Returns the expired credential for the id if Vault Agent failed in a way that may be temporary and the credential
+     * expired less than {@link #PROP_STALE_MAX_AGE} ago, and revalidates it in the background. Throws the failure
+     * otherwise.
+     */
+    private Map<String, String> staleOrThrow(ResolverConfig config, String id, SecretCache cache, IOException failure) throws IOException {
+        Map<String, String> stale = cache != null && config.getStaleMaxAge() > 0 && isRetryable(failure) ? cache.getStale(id) : null;
+        if (stale == null) {
+            throw failure;
+        }
+
+        metrics.recordStaleServe();
+        ResolverLog.warn("Returning stale credential for credential id: %s, as Vault Agent failed: %s", id, failure.getMessage());
+        if (cache.startRefresh(id)) {
+            refresh(config, cache, id, "revalidate stale");
+        }
+        return stale;
+    }
+
+    // Whether a failed request may succeed if tried again: an IO error or a status Vault returns while unavailable.
+    static boolean isRetryable(IOException failure) {
+        if (failure instanceof HttpResponseException) {
+            return RETRYABLE_STATUSES.contains(((HttpResponseException) failure).getStatusCode());
+        }
+        if (failure instanceof InterruptedIOException) {
+            // Timeouts are, but an interrupted lookup must end rather than retry or serve a stale credential.
+            return failure instanceof SocketTimeoutException || failure instanceof ConnectTimeoutException
+                || failure instanceof Deadline.ExceededException;
+        }
+        // Certificate problems do not go away by retrying.
+        return !(failure instanceof SSLException);
+    }
+
+    /**
+     * Reads a secret from Vault Agent. A request that fails with an IO error other than an HTTP status is first tried
+     * once on each other healthy Agent, without waiting. Requests that still fail with an IO error or a retryable status
+     * are retried with exponential backoff and full jitter, unless the address's circuit breaker is open. Every attempt
+     * and wait ends by the deadline. With {@link #PROP_HEDGE_PERCENTILE} set, an attempt that is slow to answer races a
+     * second request, see {@link Hedger}.
+     */
+    private VaultSecret readSecret(ResolverConfig config, String id, Deadline deadline) throws IOException {
+        List<String> addresses = config.getVaultAddresses();
+        int threshold = config.getCircuitBreakerThreshold();
+        long openNanos = TimeUnit.MILLISECONDS.toNanos(config.getCircuitBreakerOpenTime());
+        List<AgentEndpoints.Endpoint> tried = new ArrayList<>(addresses.size());
+        AgentEndpoints.Endpoint endpoint = null;
+        AgentEndpoints.Endpoint failover = null;
+        for (int attempt = 0; ; ) {
+            if (failover != null) {
+                // The deadline was checked before the failover endpoint was taken.
+                endpoint = failover;
+                failover = null;
+            } else {
+                deadline.check(String.format("Vault query for credential id: %s did not complete within %d ms", id, config.getResolveTimeout()));
+                // A retry goes to another Agent if there is a healthy one.
+                endpoint = endpoints.acquire(addresses, endpoint, threshold, openNanos);
+            }
+            if (endpoint == null) {
+                throw new CircuitBreaker.OpenException(String.format(
+                    "Not querying Vault for credential id: %s. %s failing, it is retried every %d ms", id,
+                    addresses.size() == 1 ? "Vault Agent at " + addresses.get(0) + " is" : "Every Vault Agent of " + addresses + " is",
+                    config.getCircuitBreakerOpenTime()));
             }
 
-            int status = response.getStatusLine().getStatusCode();
-            if (status < 200 || status >= 300) {
-                String message = String.format("Failed to query Vault URL: %s.", req.getURI());
-                // Try to parse the error as a Vault error and extract relevant fields.
-                try {
-                    VaultError json = gson.fromJson(body, VaultError.class);
-                    if (json != null) {
-                        final String[] errors = json.getErrors();
-                        if (errors != null && errors.length > 0) {
-                            message += String.format(" Errors: %s.", Arrays.toString(errors));
-                        }
-                        final String[] warnings = json.getWarnings();
-                        if (warnings != null && warnings.length > 0) {
-                            message += String.format(" Warnings: %s.", Arrays.toString(warnings));
-                        }
-                    }
-                } catch (Exception e) {
-                    // Failed to parse the body as a Vault error, just include the body.
-                    message += "\n\n" + body;
+            IOException failure;
+            try {
+                return send(config, id, deadline, addresses, endpoint);
+            } catch (HttpResponseException e) {
+                if (!isRetryable(e)) {
+                    throw e;
                 }
+                failure = e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw failure;
+            }
 
-                throw new HttpResponseException(status, message);
+            // The Agent could not be reached or dropped the connection, which another Agent may well not do.
+            if (!tried.contains(endpoint)) {
+                tried.add(endpoint);
+            }
+            if (!(failure instanceof HttpResponseException) && isRetryable(failure)) {
+                // Checked before taking the endpoint, which must not be left acquired but unused.
+                deadline.check(String.format("Vault query for credential id: %s did not complete within %d ms", id, config.getResolveTimeout()));
+                failover = endpoints.acquireOther(addresses, tried, threshold, openNanos);
+                if (failover != null) {
+                    metrics.recordRetry();
+                    ResolverLog.warn("Failing over Vault query for credential id: %s from Vault Agent at %s to %s: %s",
+                        id, endpoint.getAddress(), failover.getAddress(), failure.getMessage());
+                    continue;
+                }
             }
+
+            if (attempt >= config.getMaxRetries() || !isRetryable(failure)) {
+                throw failure;
+            }
+
+            long backoff = backoff(config, attempt);
+            if (backoff >= deadline.remainingMillis()) {
+                // The retry could not complete in time anyway.
+                throw failure;
+            }
+            metrics.recordRetry();
+            ResolverLog.warn("Retrying Vault query for credential id: %s in %d ms, attempt %d of %d failed: %s",
+                id, backoff, attempt + 1, config.getMaxRetries() + 1, failure.getMessage());
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry Vault query for credential id: " + id);
+            }
+            attempt++;
         }
+    }
 
-        return body;
+    /**
+     * Sends a request to the endpoint, hedged with a second request if hedging is enabled and the first is slow to
+     * answer.
+     */
+    private VaultSecret send(ResolverConfig config, String id, Deadline deadline, List<String> addresses,
+                             AgentEndpoints.Endpoint endpoint) throws IOException {
+        Hedger.Attempt<VaultSecret> primary = request(config, id, deadline, endpoint);
+        if (config.getHedgePercentile() <= 0) {
+            return primary.send();
+        }
+        long delayNanos = hedger.delayNanos(config.getHedgePercentile(), TimeUnit.MILLISECONDS.toNanos(config.getHedgeMinDelay()));
+        return hedger.send(primary, delayNanos, config.getHedgeBudget(), () -> {
+            // Another Agent if there is a healthy one, otherwise the same one over another connection.
+            AgentEndpoints.Endpoint other = endpoints.acquire(addresses, endpoint, config.getCircuitBreakerThreshold(),
+                TimeUnit.MILLISECONDS.toNanos(config.getCircuitBreakerOpenTime()));
+            return other == null ? null : request(config, id, deadline, other);
+        }, failure -> !(failure instanceof IOException) || !isRetryable((IOException) failure));
     }
 
-    private Map<String, String> extractKeys(String vaultResponse) {
-        Gson gson = new Gson();
-        VaultSecret secret = gson.fromJson(vaultResponse, VaultSecret.class);
-        JsonObject data = secret.getData();
+    /**
+     * Creates the request of a secret from the endpoint. Releases the endpoint if the id is not valid in a URI, as the
+     * request then never gets to {@link #sendRequest}.
+     */
+    private Hedger.Attempt<VaultSecret> request(ResolverConfig config, String id, Deadline deadline, AgentEndpoints.Endpoint endpoint) {
+        HttpGet get;
+        try {
+            get = new HttpGet(endpoint.getAddress() + "/v1/" + id);
+        } catch (RuntimeException e) {
+            // Nothing was sent, so it says nothing about the Agent, but it may have been the half-open probe.
+            endpoint.release();
+            endpoint.getBreaker().onAbandoned();
+            throw e;
+        }
+        return new Hedger.Attempt<VaultSecret>() {
+            @Override
+            public VaultSecret send() throws IOException {
+                return sendRequest(config, deadline, endpoint, get);
+            }
 
-        if (data == null) {
-            throw new RuntimeException("No data found in Vault secret");
+            @Override
+            public void abort() {
+                get.abort();
+            }
+        };
+    }
+
+    /**
+     * Sends a single request to Vault Agent and updates the Agent's circuit breaker with the outcome. Releases the
+     * endpoint.
+     */
+    private VaultSecret sendRequest(ResolverConfig config, Deadline deadline, AgentEndpoints.Endpoint endpoint, HttpGet get) throws IOException {
+        String address = endpoint.getAddress();
+        CircuitBreaker breaker = endpoint.getBreaker();
+        long start = System.nanoTime();
+        try {
+            get.setConfig(config.requestConfig(deadline));
+            VaultSecret secret = execute(get, config.getHttpClient(address), body -> VaultSecretReader.read(body, config.getExtractionPlan().getSecretFields()));
+            onAgentAnswered(breaker, address);
+            return secret;
+        } catch (HttpResponseException e) {
+            if (isRetryable(e)) {
+                onAgentFailed(config, breaker, address, e);
+            } else {
+                // Agent answered, e.g. with a permission error, so it is up.
+                onAgentAnswered(breaker, address);
+            }
+            throw e;
+        } catch (IOException e) {
+            if (get.isAborted()) {
+                // Lost to its hedge, which says nothing about the Agent.
+                breaker.onAbandoned();
+            } else {
+                onAgentFailed(config, breaker, address, e);
+            }
+            throw e;
+        } catch (RuntimeException | Error e) {
+            // E.g. a malformed body, Agent answered so it is up.
+            onAgentAnswered(breaker, address);
+            throw e;
+        } finally {
+            endpoint.release();
+            if (!get.isAborted()) {
+                // An aborted request's latency is only how long its hedge took.
+                long elapsed = System.nanoTime() - start;
+                metrics.recordVaultRequest(elapsed);
+                hedger.recordLatency(elapsed);
+            }
+            metrics.recordAgentRequest(address);
+        }
+    }
+
+    private static void onAgentAnswered(CircuitBreaker breaker, String address) {
+        if (breaker.onSuccess()) {
+            ResolverLog.info("Vault Agent at %s has recovered, sending it lookups again", address);
+        }
+    }
+
+    private void onAgentFailed(ResolverConfig config, CircuitBreaker breaker, String address, IOException failure) {
+        if (breaker.onFailure(config.getCircuitBreakerThreshold())) {
+            metrics.recordCircuitBreakerOpened();
+            ResolverLog.warn("Vault Agent at %s is failing, failing lookups fast for %d ms: %s",
+                address, config.getCircuitBreakerOpenTime(), failure.getMessage());
+        }
+    }
+
+    // Full jitter: a random wait up to the exponentially growing max, which spreads out retries from many threads.
+    static long backoff(ResolverConfig config, int attempt) {
+        long max = Math.min(config.getRetryMaxBackoff(), (long) config.getRetryBackoff() << Math.min(attempt, 30));
+        return ThreadLocalRandom.current().nextLong(max + 1);
+    }
+
+    private synchronized void startRefreshAhead() {
+        if (refreshScheduler != null) {
+            return;
         }
+        refreshScheduler = Executors.newSingleThreadScheduledExecutor(ResolverExecutors.daemonThreadFactory("vault-credential-refresh-scheduler"));
+        refreshScheduler.scheduleWithFixedDelay(this::refreshDueCredentials,
+            REFRESH_AHEAD_INTERVAL_MILLIS, REFRESH_AHEAD_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
 
-        // Check for embedded "data" object to handle kv-v2.
-        if (data.has("data")) {
+    // Re-fetches hot cached credentials that are close to expiry, so resolve() keeps hitting the cache for them.
+    private void refreshDueCredentials() {
+        ResolverConfig config = this.config;
+        SecretCache cache = this.cache;
+        if (config == null || cache == null || config.getCacheMaxTtl() <= 0 || config.getRefreshAheadFraction() <= 0) {
+            return;
+        }
+        for (String id : cache.refreshCandidates(config.getRefreshAheadFraction(), config.getRefreshAheadMinHits())) {
+            refresh(config, cache, id, "refresh ahead of expiry");
+        }
+    }
+
+    // Re-fetches a cached credential in the background. The entry must have been marked as refreshing.
+    private void refresh(ResolverConfig config, SecretCache cache, String id, String reason) {
+        refreshExecutor().execute(() -> {
             try {
-                data = data.get("data").getAsJsonObject();
-            } catch (IllegalStateException e) {
-                // If it's not a JsonObject, then it's not kv-v2 and we use the top-level "Data" field.
+                inFlight.execute(id, () -> fetch(config, id, cache, true, Deadline.after(config.getResolveTimeout())));
+            } catch (IOException | RuntimeException e) {
+                cache.refreshFailed(id);
+                ResolverLog.warn("Failed to %s credential id: %s: %s", reason, id, e.getMessage());
             }
+        });
+    }
+
+    // Counts a lookup of the id in the access profile, if one is kept.
+    private void recordAccess(String id) {
+        AccessProfile profile = this.profile;
+        if (profile != null && id != null) {
+            profile.record(id);
+        }
+    }
+
+    // Saves the current access profile and starts keeping the one at path instead, or none if path is null.
+    private synchronized void switchProfile(Path path) {
+        saveProfile();
+        if (path == null) {
+            profile = null;
+            if (profileScheduler != null) {
+                profileScheduler.shutdown();
+                profileScheduler = null;
+                try {
+                    Runtime.getRuntime().removeShutdownHook(profileShutdownHook);
+                } catch (IllegalStateException e) {
+                    // Already shutting down, the hook saves nothing as there is no profile anymore.
+                }
+                profileShutdownHook = null;
+            }
+            return;
+        }
+        AccessProfile updated = new AccessProfile(path);
+        try {
+            updated.load();
+        } catch (IOException | RuntimeException e) {
+            ResolverLog.warn("Failed to load the credential access profile %s, starting with an empty one: %s", path, e);
+        }
+        profile = updated;
+        if (profileScheduler == null) {
+            profileScheduler = Executors.newSingleThreadScheduledExecutor(ResolverExecutors.daemonThreadFactory("vault-credential-profile"));
+            profileScheduler.scheduleWithFixedDelay(this::saveProfile,
+                PROFILE_SAVE_INTERVAL_SECONDS, PROFILE_SAVE_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            // Otherwise a restart loses up to a save interval of lookups, and the first run's profile entirely.
+            profileShutdownHook = new Thread(this::saveProfile, "vault-credential-profile-save");
+            Runtime.getRuntime().addShutdownHook(profileShutdownHook);
         }
+    }
+
+    // Writes the access profile to its file, if it changed since it was last written.
+    void saveProfile() {
+        AccessProfile profile = this.profile;
+        if (profile == null) {
+            return;
+        }
+        try {
+            profile.save();
+        } catch (IOException | RuntimeException e) {
+            ResolverLog.warn("Failed to save the credential access profile %s: %s", profile.getPath(), e);
+        }
+    }
+
+    /**
+     * Fetches the most used credentials of the access profile into the cache, so that the first lookups after a
+     * restart hit it instead of each paying a round trip to Vault Agent. Fetches run on the batch executor, so at most
+     * {@link #PROP_BATCH_CONCURRENCY} requests are made at once, and lookups of an id that is still being prefetched
+     * share its request.
+     */
+    private void prefetch() {
+        long start = System.nanoTime();
+        ResolverConfig config;
+        try {
+            config = config();
+        } catch (RuntimeException e) {
+            ResolverLog.warn("Skipped prefetching credentials: %s", e.getMessage());
+            return;
+        }
+        AccessProfile profile = this.profile;
+        if (profile == null || config.getPrefetchCount() == 0) {
+            return;
+        }
+        if (config.getCacheMaxTtl() <= 0) {
+            ResolverLog.warn("Skipped prefetching credentials: MID server property %s requires %s", PROP_PREFETCH_PROFILE, PROP_CACHE_MAX_TTL);
+            return;
+        }
+        SecretCache cache = cache(config);
+        ExecutorService executor = batchExecutor(config.getBatchConcurrency());
+        List<String> ids = profile.top(config.getPrefetchCount());
+        Map<String, Future<Map<String, String>>> pending = new LinkedHashMap<>();
+        for (String id : ids) {
+            // Asynchronously, as a task blocking on a fetch queued behind it on the same executor would never finish.
+            pending.put(id, inFlight.executeAsync(id, executor,
+                () -> fetch(config, id, cache, false, Deadline.after(config.getResolveTimeout()))));
+        }
+
+        int fetched = 0;
+        for (Map.Entry<String, Future<Map<String, String>>> entry : pending.entrySet()) {
+            try {
+                entry.getValue().get();
+                fetched++;
+            } catch (ExecutionException e) {
+                ResolverLog.debug("Failed to prefetch credential id: %s: %s", entry.getKey(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        ResolverLog.info("Prefetched %d of %d credentials from the access profile %s in %d ms", fetched, ids.size(),
+            profile.getPath(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Completes once the startup prefetch is done, or at once if no access profile is kept.
+    CompletableFuture<Void> prefetched() {
+        return prefetched;
+    }
 
-        // access_key for AWS secret engine
-        ValueAndSource username = valueAndSourceFromData(data, "access_key", "username");
-        // secret_key for AWS secret engine, current_password for AD secret engine
-        ValueAndSource password = valueAndSourceFromData(data, "secret_key", "current_password", "password");
-        ValueAndSource privateKey = valueAndSourceFromData(data, "private_key");
-        ValueAndSource passphrase = valueAndSourceFromData(data, "passphrase");
+    // Visible for testing.
+    AgentEndpoints endpoints() {
+        return endpoints;
+    }
 
-        ValueAndSource authprotocol = valueAndSourceFromData(data, "authprotocol");
-        ValueAndSource authkey = valueAndSourceFromData(data, "authkey");
-        ValueAndSource privprotocol = valueAndSourceFromData(data, "privprotocol");
-        ValueAndSource privkey = valueAndSourceFromData(data, "privkey");
-        ValueAndSource bearer = valueAndSourceFromData(data, "bearer_token");
+    private synchronized ExecutorService hedgeExecutor() {
+        if (hedgeExecutor == null) {
+            hedgeExecutor = ResolverExecutors.newUnboundedExecutor("vault-credential-hedge");
+        }
+        return hedgeExecutor;
+    }
 
-        System.err.printf("Setting values from fields %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s%n",
-                VAL_USER, username.source,
-                VAL_PSWD, password.source,
-                VAL_PKEY, privateKey.source,
-                VAL_PASSPHRASE, passphrase.source,
-                VAL_AUTHPROTO, authprotocol.source,
-                VAL_AUTHKEY, authkey.source,
-                VAL_PRIVPROTO, privprotocol.source,
-                VAL_PRIVKEY, privkey.source,
-                VAL_BEARER, bearer.source);
-               
-        HashMap<String, String> result = new HashMap<>();
-        if (username.value != null) {
-            result.put(VAL_USER, username.value);
+    private synchronized ExecutorService refreshExecutor() {
+        if (refreshExecutor == null) {
+            refreshExecutor = ResolverExecutors.newBoundedExecutor("vault-credential-refresh", REFRESH_AHEAD_CONCURRENCY);
         }
-        if (password.value != null) {
-            result.put(VAL_PSWD, password.value);
+        return refreshExecutor;
+    }
+
+    private SecretCache cache(ResolverConfig config) {
+        SecretCache cache = this.cache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = this.cache;
+                if (cache == null) {
+                    cache = new SecretCache(config.getCacheMaxEntries(), storage(config));
+                    cache.retainStale(TimeUnit.SECONDS.toNanos(config.getStaleMaxAge()));
+                    this.cache = cache;
+                }
+            }
         }
-        if (privateKey.value != null) {
-            result.put(VAL_PKEY, privateKey.value);
+        return cache;
+    }
+
+    private static SecretCache.Storage storage(ResolverConfig config) {
+        return config.isCacheOffHeap() ? OffHeapSecretStorage.INSTANCE : SecretCache.ON_HEAP;
+    }
+
+    /**
+     * Returns how many seconds a secret may be cached: the shortest of its lease duration, the "ttl" field some
+     * secret engines (e.g. Active Directory) return inside data, and the configured maximum.
+     */
+    static long cacheTtl(VaultSecret secret, long maxTtl) {
+        long ttl = maxTtl;
+        if (secret.getLeaseDuration() > 0) {
+            ttl = Math.min(ttl, secret.getLeaseDuration());
         }
-        if (passphrase.value != null) {
-            result.put(VAL_PASSPHRASE, passphrase.value);
+        if (secret.getDataTtl() > 0) {
+            ttl = Math.min(ttl, secret.getDataTtl());
         }
-         if (authprotocol.value != null) {
-            result.put(VAL_AUTHPROTO, authprotocol.value);
+        return ttl;
+    }
+
+    // The number of resolve calls that shared another caller's in-flight request to Vault Agent.
+    long getCoalescedRequests() {
+        return inFlight.getCoalesced();
+    }
+
+    /**
+     * Return the ServiceNow API version supported by this class.
+     */
+    public String getVersion() {
+        return "1.0";
+    }
+
+    public static String send(HttpUriRequest req, String vaultCA, boolean tlsSkipVerify) throws IOException {
+        String address = URIUtils.extractHost(req.getURI()).toURI();
+        CloseableHttpClient httpClient = httpClient(address, vaultCA, tlsSkipVerify,
+            HttpClientRegistry.DEFAULT_MAX_CONNECTIONS_PER_ROUTE, HttpClientRegistry.DEFAULT_MAX_CONNECTIONS);
+        return send(req, httpClient);
+    }
+
+    private static CloseableHttpClient httpClient(String address, String vaultCA, boolean tlsSkipVerify, int maxPerRoute, int maxTotal) {
+        try {
+            // Not released by the caller, so the registry bounds how many of these it keeps.
+            return HttpClientRegistry.shared(address, vaultCA, tlsSkipVerify, maxPerRoute, maxTotal);
+        } catch (TLSConfig.TLSException e) {
+            throw new RuntimeException("Failed to configure SSL context: " + e);
         }
-        if (authkey.value != null) {
-            result.put(VAL_AUTHKEY, authkey.value);
+    }
+
+    static String send(HttpUriRequest req, CloseableHttpClient httpClient) throws IOException {
+        return execute(req, httpClient, CredentialResolver::readFully);
+    }
+
+    // Consumes a successful response body, e.g. by streaming it into a VaultSecret.
+    interface BodyReader<T> {
+        T read(Reader body) throws IOException;
+    }
+
+    static <T> T execute(HttpUriRequest req, CloseableHttpClient httpClient, BodyReader<T> bodyReader) throws IOException {
+        req.setHeader("accept", "application/json");
+        req.setHeader("X-Vault-Request", "true");
+        try (CloseableHttpResponse response = httpClient.execute(req)) {
+            HttpEntity entity = response.getEntity();
+            int status = response.getStatusLine().getStatusCode();
+            ResolverMetrics.get().recordHttpStatus(status);
+            if (entity == null) {
+                if (status < 200 || status >= 300) {
+                    throw new HttpResponseException(status, errorMessage(req, null));
+                }
+                return bodyReader.read(new StringReader(""));
+            }
+
+            // Closing the reader consumes whatever the body reader left unread, so the connection can be reused.
+            try (Reader body = new InputStreamReader(ResolverMetrics.get().countBytes(entity.getContent()), StandardCharsets.UTF_8)) {
+                if (status < 200 || status >= 300) {
+                    throw new HttpResponseException(status, errorMessage(req, readFully(body)));
+                }
+                return bodyReader.read(body);
+            }
         }
-        if (privprotocol.value != null) {
-            result.put(VAL_PRIVPROTO, privprotocol.value);
+    }
+
+    private static String errorMessage(HttpUriRequest req, String body) {
+        String message = String.format("Failed to query Vault URL: %s.", req.getURI());
+        // Try to parse the error as a Vault error and extract relevant fields.
+        try {
+            VaultError json = gson.fromJson(body, VaultError.class);
+            if (json != null) {
+                final String[] errors = json.getErrors();
+                if (errors != null && errors.length > 0) {
+                    message += String.format(" Errors: %s.", Arrays.toString(errors));
+                }
+                final String[] warnings = json.getWarnings();
+                if (warnings != null && warnings.length > 0) {
+                    message += String.format(" Warnings: %s.", Arrays.toString(warnings));
+                }
+            }
+        } catch (Exception e) {
+            // Failed to parse the body as a Vault error, just include the body.
+            message += "\n\n" + body;
         }
-        if (privkey.value != null) {
-            result.put(VAL_PRIVKEY, privkey.value);
+        return message;
+    }
+
+    private static String readFully(Reader body) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        int n;
+        while ((n = body.read(buffer)) != -1) {
+            sb.append(buffer, 0, n);
         }
-        if (bearer.value != null) {
-            result.put(VAL_BEARER, bearer.value);
+        return sb.toString();
+    }
+
+    // Every field of a secret's data that extractKeys may read with the built-in aliases. The streaming reader skips
+    // everything else.
+    static final Set<String> SECRET_FIELDS = ExtractionPlan.DEFAULT.getSecretFields();
+
+    Map<String, String> extractKeys(VaultSecret secret) {
+        return extractKeys(secret, ExtractionPlan.DEFAULT);
+    }
+
+    Map<String, String> extractKeys(VaultSecret secret, ExtractionPlan plan) {
+        // VaultSecretReader has already descended into the embedded "data" object of kv-v2 secrets.
+        Map<String, String> data = secret.getData();
+
+        if (data == null) {
+            throw new RuntimeException("No data found in Vault secret");
         }
 
-        return result;
+        if (ResolverLog.isEnabled(ResolverLog.Level.DEBUG)) {
+            ResolverLog.debug("Setting values from fields %s", plan.describeSources(data));
+        }
+        return plan.extract(data);
     }
 
     public void validateResult(Map<String, String> result, CredentialType type) {
@@ -234,10 +1072,13 @@ public class CredentialResolver {
             return;
         }
 
-        for (String expected : type.expectedFields()) {
-            if (!result.containsKey(expected)) {
-                throw new RuntimeException(String.format("Expected '%s' field for credential type %s", expected, type.name()));
-            }
+        int present = result instanceof CredentialValues ? ((CredentialValues) result).presentMask()
+            : ExtractionPlan.presentMask(result, type.requiredMask());
+        int missing = type.requiredMask() & ~present;
+        if (missing != 0) {
+            // The first missing field in the order of expectedFields, which follows ExtractionPlan.FIELDS.
+            String expected = ExtractionPlan.FIELDS[Integer.numberOfTrailingZeros(missing)];
+            throw new RuntimeException(String.format("Expected '%s' field for credential type %s", expected, type.name()));
         }
     }
 
@@ -268,35 +1109,20 @@ public class CredentialResolver {
         snmpv3                              (new String[]{VAL_USER, VAL_AUTHPROTO, VAL_AUTHKEY, VAL_PRIVPROTO, VAL_PRIVKEY}),
         bearer                              (new String[]{VAL_BEARER});
         private final String[] expectedFields;
+        private final int requiredMask;
 
         CredentialType(String[] expectedFields) {
             this.expectedFields = expectedFields;
+            this.requiredMask = ExtractionPlan.mask(expectedFields);
         }
 
         public String[] expectedFields() {
             return expectedFields;
         }
-    }
-
-    // Metadata class to help report which fields keys were extracted from.
-    private static class ValueAndSource {
-        private final String value;
-        private final String source;
-
-        ValueAndSource(String value, String source) {
-            this.value = value;
-            this.source = source;
-        }
-    }
 
-    // The first key that exists in data will be extracted and returned.
-    private ValueAndSource valueAndSourceFromData(JsonObject data, String ...keys) {
-        for (String key : keys) {
-            if (data.has(key)) {
-                return new ValueAndSource(data.get(key).getAsString(), key);
-            }
+        // The expectedFields as a mask of ExtractionPlan.FIELDS bits.
+        int requiredMask() {
+            return requiredMask;
         }
-
-        return new ValueAndSource(null, null);
     }
 }
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>The values of a resolved credential: an immutable map whose keys can only be the output values of
+ * {@link ExtractionPlan#FIELDS}, e.g. {@link CredentialResolver#VAL_USER}.</p>
+ *
+ * <p>Values are held in an array indexed by the key's position in FIELDS, plus a mask of the keys present, so a map
+ * costs two objects however many values it holds and a lookup is a switch on the key instead of hashing into a table.
+ * Entries are only created while iterating {@link #entrySet()}. Being immutable, one instance is shared by the cache
+ * and every caller it is returned to. Iteration follows the order of FIELDS.</p>
+ */
+final class CredentialValues extends AbstractMap<String, String> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    static final CredentialValues EMPTY = new CredentialValues(new String[ExtractionPlan.FIELDS.length], 0);
+
+    private final String[] values; // indexed like ExtractionPlan.FIELDS
+    private final int mask;
+    private transient Set<Entry<String, String>> entrySet;
+
+    private CredentialValues(String[] values, int mask) {
+        this.values = values;
+        this.mask = mask;
+    }
+
+    /**
+     * @return The keys present, as a mask of ExtractionPlan.FIELDS bits
+     */
+    int presentMask() {
+        return mask;
+    }
+
+    @Override
+    public int size() {
+        return Integer.bitCount(mask);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return mask == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int index = index(key);
+        return index >= 0 && (mask & (1 << index)) != 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = index(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            if (Objects.equals(value, values[Integer.numberOfTrailingZeros(bits)])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            int index = Integer.numberOfTrailingZeros(bits);
+            action.accept(ExtractionPlan.FIELDS[index], values[index]);
+        }
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        Set<Entry<String, String>> entrySet = this.entrySet;
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return CredentialValues.this.size();
+                }
+            };
+            this.entrySet = entrySet;
+        }
+        return entrySet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof CredentialValues) {
+            CredentialValues other = (CredentialValues) o;
+            return mask == other.mask && Arrays.equals(values, other.values);
+        }
+        return super.equals(o);
+    }
+
+    // As specified by Map.hashCode, without creating the entries.
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (int bits = mask; bits != 0; bits &= bits - 1) {
+            int index = Integer.numberOfTrailingZeros(bits);
+            hash += ExtractionPlan.FIELDS[index].hashCode() ^ Objects.hashCode(values[index]);
+        }
+        return hash;
+    }
+
+    private static int index(Object key) {
+        return key instanceof String ? ExtractionPlan.index((String) key) : -1;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, String>> {
+        private int remaining = mask;
+
+        @Override
+        public boolean hasNext() {
+            return remaining != 0;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            int index = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            return new SimpleImmutableEntry<>(ExtractionPlan.FIELDS[index], values[index]);
+        }
+    }
+
+    /**
+     * Collects the values of a single map. Not reusable once built.
+     */
+    static final class Builder {
+        private final String[] values = new String[ExtractionPlan.FIELDS.length];
+        private int mask;
+
+        /**
+         * @param index The key's position in ExtractionPlan.FIELDS
+         */
+        Builder put(int index, String value) {
+            values[index] = value;
+            mask |= 1 << index;
+            return this;
+        }
+
+        /**
+         * @throws IllegalArgumentException if key is not one of ExtractionPlan.FIELDS
+         */
+        Builder put(String key, String value) {
+            int index = index(key);
+            if (index < 0) {
+                throw new IllegalArgumentException("Not a credential value: " + key);
+            }
+            return put(index, value);
+        }
+
+        CredentialValues build() {
+            return mask == 0 ? EMPTY : new CredentialValues(values, mask);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>The point in time by which a lookup must complete, including all of its retries.</p>
+ *
+ * <p>The deadline is enforced between attempts and by capping each attempt's connect, socket and pool timeouts at the
+ * time remaining. A socket timeout bounds each wait for data, not the whole response, so a response trickling in
+ * slowly can overrun the deadline by up to one socket timeout.</p>
+ */
+final class Deadline {
+    static final Deadline NONE = new Deadline(Long.MAX_VALUE, System::nanoTime);
+
+    private final long deadlineNanos;
+    private final LongSupplier nanoClock;
+
+    private Deadline(long deadlineNanos, LongSupplier nanoClock) {
+        this.deadlineNanos = deadlineNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @param timeoutMillis Milliseconds from now, 0 or less for no deadline
+     */
+    static Deadline after(long timeoutMillis) {
+        return after(System.nanoTime(), timeoutMillis);
+    }
+
+    /**
+     * @param startNanos When the timeout started, as returned by {@link System#nanoTime()}
+     * @param timeoutMillis Milliseconds from startNanos, 0 or less for no deadline
+     */
+    static Deadline after(long startNanos, long timeoutMillis) {
+        return after(startNanos, timeoutMillis, System::nanoTime);
+    }
+
+    // Visible for testing, with a fake clock.
+    static Deadline after(long startNanos, long timeoutMillis, LongSupplier nanoClock) {
+        if (timeoutMillis <= 0) {
+            return NONE;
+        }
+        return new Deadline(startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), nanoClock);
+    }
+
+    boolean isNone() {
+        return this == NONE;
+    }
+
+    /**
+     * @return Milliseconds left, rounded up so that a deadline that has not passed yet never reports 0
+     */
+    long remainingMillis() {
+        if (isNone()) {
+            return Long.MAX_VALUE;
+        }
+        long remaining = deadlineNanos - nanoClock.getAsLong();
+        return remaining <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1);
+    }
+
+    /**
+     * Caps a configured timeout, where 0 means none, at the time remaining.
+     */
+    int cap(int timeoutMillis) {
+        if (isNone()) {
+            return timeoutMillis;
+        }
+        // At least 1, as a timeout of 0 would mean no timeout at all.
+        long remaining = Math.max(1, remainingMillis());
+        if (timeoutMillis <= 0) {
+            return (int) Math.min(Integer.MAX_VALUE, remaining);
+        }
+        return (int) Math.min(timeoutMillis, remaining);
+    }
+
+    /**
+     * @throws ExceededException if the deadline has passed
+     */
+    void check(String what) throws ExceededException {
+        if (remainingMillis() == 0) {
+            throw new ExceededException(what);
+        }
+    }
+
+    /**
+     * Thrown when a lookup does not complete within {@link CredentialResolver#PROP_RESOLVE_TIMEOUT}.
+     */
+    static final class ExceededException extends InterruptedIOException {
+        ExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.snc.discovery.CredentialResolver.*;
+
+/**
+ * <p>How the fields of a Vault secret map onto the resolver's output values, compiled once per configuration into an
+ * indexed table: for each output value, the secret fields it is read from in order of preference.</p>
+ *
+ * <p>Output values are numbered by their position in {@link #FIELDS}, which is also their bit in a field mask, so that
+ * checking the fields a {@link CredentialType} requires is a single mask comparison.</p>
+ */
+final class ExtractionPlan {
+    // The output values, in the order of their bits in a field mask.
+    static final String[] FIELDS = {
+        VAL_USER, VAL_PSWD, VAL_PKEY, VAL_PASSPHRASE, VAL_AUTHPROTO, VAL_AUTHKEY, VAL_PRIVPROTO, VAL_PRIVKEY, VAL_BEARER,
+    };
+
+    // The built-in secret fields of each output value, indexed like FIELDS.
+    private static final String[][] BUILT_IN_ALIASES = {
+        // access_key for AWS secret engine
+        {"access_key", "username"},
+        // secret_key for AWS secret engine, current_password for AD secret engine
+        {"secret_key", "current_password", "password"},
+        {"private_key"},
+        {"passphrase"},
+        {"authprotocol"},
+        {"authkey"},
+        {"privprotocol"},
+        {"privkey"},
+        {"bearer_token"},
+    };
+
+    static final ExtractionPlan DEFAULT = new ExtractionPlan(BUILT_IN_ALIASES);
+
+    private final String[][] aliases;
+    private final Set<String> secretFields;
+
+    private ExtractionPlan(String[][] aliases) {
+        this.aliases = aliases;
+        Set<String> secretFields = new LinkedHashSet<>();
+        for (String[] fieldAliases : aliases) {
+            secretFields.addAll(Arrays.asList(fieldAliases));
+        }
+        this.secretFields = Collections.unmodifiableSet(secretFields);
+    }
+
+    /**
+     * Compiles the built-in aliases plus extra ones, e.g. "user=login|user_name,pswd=pass". Extra secret fields are
+     * tried after the built-in ones, in the order listed.
+     *
+     * @param extraAliases The extra aliases, null or empty for none
+     * @throws IllegalArgumentException if extraAliases is malformed or names an unknown output value
+     */
+    static ExtractionPlan compile(String extraAliases) {
+        if (extraAliases == null || extraAliases.trim().isEmpty()) {
+            return DEFAULT;
+        }
+        List<List<String>> aliases = new ArrayList<>();
+        for (String[] fieldAliases : BUILT_IN_ALIASES) {
+            aliases.add(new ArrayList<>(Arrays.asList(fieldAliases)));
+        }
+        for (String entry : extraAliases.split(",")) {
+            if (entry.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = entry.split("=", 2);
+            int index = parts.length == 2 ? index(parts[0].trim()) : -1;
+            if (index < 0) {
+                throw new IllegalArgumentException(String.format(
+                    "'%s' is not of the form <value>=<field>|<field>, with value one of %s", entry.trim(), Arrays.toString(FIELDS)));
+            }
+            for (String field : parts[1].split("\\|")) {
+                if (!field.trim().isEmpty() && !aliases.get(index).contains(field.trim())) {
+                    aliases.get(index).add(field.trim());
+                }
+            }
+        }
+        String[][] compiled = new String[FIELDS.length][];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = aliases.get(i).toArray(new String[0]);
+        }
+        return new ExtractionPlan(compiled);
+    }
+
+    /**
+     * @return Every secret field the plan may read, for the streaming reader to keep
+     */
+    Set<String> getSecretFields() {
+        return secretFields;
+    }
+
+    /**
+     * Maps the fields of a secret's data onto the output values. Each output value is taken from the first of its
+     * secret fields that is present.
+     */
+    CredentialValues extract(Map<String, String> data) {
+        CredentialValues.Builder result = new CredentialValues.Builder();
+        for (int i = 0; i < aliases.length; i++) {
+            for (String alias : aliases[i]) {
+                String value = data.get(alias);
+                if (value != null) {
+                    result.put(i, value);
+                    break;
+                }
+            }
+        }
+        return result.build();
+    }
+
+    /**
+     * @return Which secret field each output value would be taken from, as "user=username, pswd=null, ..."
+     */
+    String describeSources(Map<String, String> data) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < aliases.length; i++) {
+            String source = null;
+            for (String alias : aliases[i]) {
+                if (data.get(alias) != null) {
+                    source = alias;
+                    break;
+                }
+            }
+            sb.append(i == 0 ? "" : ", ").append(FIELDS[i]).append('=').append(source);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The mask of the given output values
+     */
+    static int mask(String... fields) {
+        int mask = 0;
+        for (String field : fields) {
+            mask |= 1 << index(field);
+        }
+        return mask;
+    }
+
+    /**
+     * @param of The output values to look for
+     * @return The mask of those of the output values that are present in a result
+     */
+    static int presentMask(Map<String, String> result, int of) {
+        int mask = 0;
+        for (int bits = of; bits != 0; bits &= bits - 1) {
+            int bit = Integer.lowestOneBit(bits);
+            if (result.containsKey(FIELDS[Integer.numberOfTrailingZeros(bit)])) {
+                mask |= bit;
+            }
+        }
+        return mask;
+    }
+
+    // The position of an output value in FIELDS, or -1. A switch rather than a map, as it runs for every result.
+    static int index(String field) {
+        switch (field) {
+            case VAL_USER:
+                return 0;
+            case VAL_PSWD:
+                return 1;
+            case VAL_PKEY:
+                return 2;
+            case VAL_PASSPHRASE:
+                return 3;
+            case VAL_AUTHPROTO:
+                return 4;
+            case VAL_AUTHKEY:
+                return 5;
+            case VAL_PRIVPROTO:
+                return 6;
+            case VAL_PRIVKEY:
+                return 7;
+            case VAL_BEARER:
+                return 8;
+            default:
+                return -1;
+        }
+    }
+}
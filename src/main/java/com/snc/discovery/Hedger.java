@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * <p>Sends hedged requests: if a request has not answered within a delay, an identical second request is sent and
+ * whichever succeeds first wins, the other is aborted. A rare slow response from Vault Agent then costs the delay
+ * rather than the whole slow response.</p>
+ *
+ * <p>The delay is a percentile of recent Vault request latencies, so only the slowest few percent of requests are
+ * hedged. The hedger keeps its own latencies of the last one to two {@link #WINDOW_NANOS} rather than using the
+ * cumulative metrics histogram, so that the delay follows Vault Agent when it gets faster or slower.</p>
+ *
+ * <p>On top of that, hedges are limited by a budget: every request earns a fraction of a hedge, and a hedge is only
+ * sent when a whole one has been earned. An Agent that slows down across the board therefore gets at most budget
+ * percent more requests, not twice as many.</p>
+ */
+final class Hedger {
+    // Requests recorded before their latency percentile is trusted as a delay.
+    static final long MIN_SAMPLES = 100;
+    // The budget is kept in thousandths of a hedge, at most this many, so that a quiet spell cannot save up a burst.
+    private static final long HEDGE_COST = 1000;
+    private static final long MAX_TOKENS = 10 * HEDGE_COST;
+    // How often the delay is recomputed, as a histogram snapshot is too expensive for every request.
+    private static final long DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Latencies are kept for the current window and the one before, so the oldest dropped is at most two windows old.
+    static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * One of the requests of a hedged send.
+     */
+    interface Attempt<V> {
+        V send() throws IOException;
+
+        /**
+         * Aborts the request, whether it is in progress, has not started yet or has completed.
+         */
+        void abort();
+    }
+
+    private final Executor executor;
+    private final LongSupplier nanoClock;
+    private final ResolverMetrics metrics = ResolverMetrics.get();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicReference<Windows> windows;
+    private volatile Delay delay; // null until first computed
+
+    Hedger(Executor executor) {
+        this(executor, System::nanoTime);
+    }
+
+    // Visible for testing, with a fake clock.
+    Hedger(Executor executor, LongSupplier nanoClock) {
+        this.executor = executor;
+        this.nanoClock = nanoClock;
+        this.windows = new AtomicReference<>(new Windows(new LatencyHistogram(), new LatencyHistogram(), nanoClock.getAsLong()));
+    }
+
+    /**
+     * Records how long a Vault request took, for {@link #delayNanos(double, long)}.
+     */
+    void recordLatency(long nanos) {
+        windows(nanoClock.getAsLong()).current.record(nanos);
+    }
+
+    /**
+     * @param percentile The percentile of Vault request latency to wait before hedging
+     * @param minNanos The shortest delay, however fast requests have been
+     * @return The delay before a request is hedged, or 0 if too few requests have been recorded to tell
+     */
+    long delayNanos(double percentile, long minNanos) {
+        Delay delay = this.delay;
+        long now = nanoClock.getAsLong();
+        // Until there are enough samples on every call, which is only the first few requests.
+        if (delay == null || delay.nanos == 0 || delay.percentile != percentile || now - delay.computedAtNanos >= DELAY_REFRESH_NANOS) {
+            Windows windows = windows(now);
+            LatencyHistogram.Snapshot latency = windows.previous.snapshot().plus(windows.current.snapshot());
+            long nanos = latency.getCount() < MIN_SAMPLES ? 0 : latency.getValueAtPercentile(percentile);
+            delay = new Delay(percentile, nanos, now);
+            this.delay = delay;
+        }
+        return delay.nanos == 0 ? 0 : Math.max(minNanos, delay.nanos);
+    }
+
+    /**
+     * Sends primary, and a second request from hedge if primary has not completed after delayNanos and the budget
+     * allows. Returns the first successful response, or throws the first failure once both requests have failed.
+     *
+     * @param delayNanos How long to wait before hedging, 0 to send primary on the calling thread without a hedge
+     * @param budgetPercent The percentage of requests that may be hedged
+     * @param hedge Creates the second request, or returns null if there is nowhere to send it
+     * @param isFinal Whether a failure is an answer that the other request would get too, e.g. a 404, which ends
+     *                the send right away instead of waiting for the other request
+     */
+    <V> V send(Attempt<V> primary, long delayNanos, double budgetPercent, Supplier<Attempt<V>> hedge,
+               Predicate<Throwable> isFinal) throws IOException {
+        long earned = Math.round(budgetPercent * HEDGE_COST / 100);
+        tokens.accumulateAndGet(earned, (t, e) -> Math.min(MAX_TOKENS, t + e));
+        if (delayNanos <= 0) {
+            return primary.send();
+        }
+
+        Race<V> race = new Race<>(isFinal);
+        race.start(primary, false);
+        try {
+            try {
+                return race.winner.get(delayNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (!race.winner.isDone() && tryWithdraw()) {
+                    Attempt<V> second = hedge.get();
+                    if (second == null) {
+                        tokens.addAndGet(HEDGE_COST);
+                    } else {
+                        metrics.recordHedgeSent();
+                        race.start(second, true);
+                    }
+                }
+            }
+            return race.winner.get();
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            race.abortAllBut(null);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Vault Agent to answer");
+        }
+    }
+
+    private boolean tryWithdraw() {
+        while (true) {
+            long available = tokens.get();
+            if (available < HEDGE_COST) {
+                return false;
+            }
+            if (tokens.compareAndSet(available, available - HEDGE_COST)) {
+                return true;
+            }
+        }
+    }
+
+    private static IOException rethrow(Throwable failure) {
+        if (failure instanceof IOException) {
+            return (IOException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        return new IOException(failure);
+    }
+
+    // The requests of one hedged send, racing to complete the winner.
+    private final class Race<V> {
+        final CompletableFuture<V> winner = new CompletableFuture<>();
+        private final Predicate<Throwable> isFinal;
+        private final List<Attempt<V>> attempts = new CopyOnWriteArrayList<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicBoolean decided = new AtomicBoolean();
+        private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+
+        Race(Predicate<Throwable> isFinal) {
+            this.isFinal = isFinal;
+        }
+
+        void start(Attempt<V> attempt, boolean hedge) {
+            attempts.add(attempt);
+            running.incrementAndGet();
+            executor.execute(() -> run(attempt, hedge));
+        }
+
+        private void run(Attempt<V> attempt, boolean hedge) {
+            try {
+                V value = attempt.send();
+                if (decided.compareAndSet(false, true)) {
+                    if (hedge) {
+                        metrics.recordHedgeWon();
+                    }
+                    abortAllBut(attempt);
+                    winner.complete(value);
+                }
+            } catch (Throwable e) {
+                firstFailure.compareAndSet(null, e);
+                // The loser's failure, e.g. from being aborted, arrives once the race is decided and changes nothing.
+                boolean answer = isFinal.test(e);
+                if ((answer || running.decrementAndGet() == 0) && decided.compareAndSet(false, true)) {
+                    abortAllBut(attempt);
+                    winner.completeExceptionally(answer ? e : firstFailure.get());
+                }
+            }
+        }
+
+        void abortAllBut(Attempt<V> keep) {
+            for (Attempt<V> attempt : attempts) {
+                if (attempt != keep) {
+                    attempt.abort();
+                }
+            }
+        }
+    }
+
+    private Windows windows(long now) {
+        Windows windows = this.windows.get();
+        while (now - windows.startedAtNanos >= WINDOW_NANOS) {
+            // After a quiet spell of more than a window, the current window's latencies are too old to keep as well.
+            LatencyHistogram previous = now - windows.startedAtNanos >= 2 * WINDOW_NANOS ? new LatencyHistogram() : windows.current;
+            Windows rotated = new Windows(new LatencyHistogram(), previous, now);
+            if (this.windows.compareAndSet(windows, rotated)) {
+                return rotated;
+            }
+            windows = this.windows.get();
+        }
+        return windows;
+    }
+
+    private static final class Windows {
+        final LatencyHistogram current;
+        final LatencyHistogram previous;
+        final long startedAtNanos;
+
+        Windows(LatencyHistogram current, LatencyHistogram previous, long startedAtNanos) {
+            this.current = current;
+            this.previous = previous;
+            this.startedAtNanos = startedAtNanos;
+        }
+    }
+
+    private static final class Delay {
+        final double percentile;
+        final long nanos;
+        final long computedAtNanos;
+
+        Delay(double percentile, long nanos, long computedAtNanos) {
+            this.percentile = percentile;
+            this.nanos = nanos;
+            this.computedAtNanos = computedAtNanos;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>A process-wide registry of pooled HTTP clients, keyed by the Vault Agent address and the TLS settings used to
+ * reach it.</p>
+ *
+ * <p>Each client owns a {@link PoolingHttpClientConnectionManager}, so repeated lookups against the same Agent reuse
+ * warm (and, for HTTPS, already handshaken) connections instead of building a new client per request.</p>
+ *
+ * <p>Clients are reference counted: each {@link ResolverConfig} snapshot holds a reference to the clients it uses and
+ * releases them once it is superseded, so that a client nothing refers to any more is closed along with its pool and
+ * idle connection evictor thread. All remaining clients are closed by a JVM shutdown hook, or explicitly via
+ * {@link #closeAll()}.</p>
+ */
+final class HttpClientRegistry {
+    static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    // Upper bound on how long an idle connection is kept alive when the server does not send a Keep-Alive header.
+    private static final long DEFAULT_KEEP_ALIVE_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // Connections idle for longer than this are revalidated before reuse, e.g. after a Vault Agent restart.
+    private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+    // Lookups that started on a superseded snapshot may still use its clients, e.g. to retry, so a released client is
+    // closed only once it has had no references for this long and has no leased connections.
+    private static final long CLOSE_GRACE_SECONDS = 60;
+    // Clients kept for shared(), whose callers don't release them. Only a guard against unbounded growth.
+    private static final int MAX_SHARED_CLIENTS = 16;
+
+    private static final Map<ClientKey, PooledClient> clients = new ConcurrentHashMap<>();
+    // The keys of the clients referenced by shared(), least recently used first.
+    private static final Map<ClientKey, Boolean> sharedKeys = new LinkedHashMap<>(16, 0.75f, true); // guarded by the class
+    private static ScheduledExecutorService closer; // guarded by the class
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(HttpClientRegistry::closeAll, "vault-http-client-shutdown"));
+    }
+
+    private HttpClientRegistry() {
+    }
+
+    /**
+     * Returns the pooled client for the given address and TLS settings, creating it on first use, and takes a
+     * reference to it that must be given back with {@link #release(String, String, boolean)}. If the client already
+     * exists, its pool limits are updated in place to match the requested ones.
+     */
+    static synchronized CloseableHttpClient acquire(String address, String vaultCA, boolean tlsSkipVerify,
+                                                    int maxPerRoute, int maxTotal) throws TLSConfig.TLSException {
+        ClientKey key = new ClientKey(address, vaultCA, tlsSkipVerify);
+        PooledClient client = clients.get(key);
+        if (client == null) {
+            client = create(vaultCA, tlsSkipVerify, maxPerRoute, maxTotal);
+            clients.put(key, client);
+        }
+        // Resized before the reference is taken, so that invalid limits do not leave one behind.
+        client.resize(maxPerRoute, maxTotal);
+        client.references++;
+        return client.httpClient;
+    }
+
+    /**
+     * Gives back a reference taken by {@link #acquire}. The client is closed once nothing refers to it any more.
+     */
+    static synchronized void release(String address, String vaultCA, boolean tlsSkipVerify) {
+        ClientKey key = new ClientKey(address, vaultCA, tlsSkipVerify);
+        PooledClient client = clients.get(key);
+        if (client != null && --client.references <= 0) {
+            clients.remove(key);
+            closeWhenIdle(client);
+        }
+    }
+
+    /**
+     * Like {@link #acquire}, for callers that don't release the client. The registry holds the reference instead, for
+     * at most {@value #MAX_SHARED_CLIENTS} clients, releasing the least recently used one beyond that.
+     */
+    static synchronized CloseableHttpClient shared(String address, String vaultCA, boolean tlsSkipVerify,
+                                                   int maxPerRoute, int maxTotal) throws TLSConfig.TLSException {
+        ClientKey key = new ClientKey(address, vaultCA, tlsSkipVerify);
+        PooledClient client = clients.get(key);
+        if (client != null && sharedKeys.get(key) != null) {
+            client.resize(maxPerRoute, maxTotal);
+            return client.httpClient;
+        }
+        CloseableHttpClient httpClient = acquire(address, vaultCA, tlsSkipVerify, maxPerRoute, maxTotal);
+        sharedKeys.put(key, Boolean.TRUE);
+        if (sharedKeys.size() > MAX_SHARED_CLIENTS) {
+            ClientKey eldest = sharedKeys.keySet().iterator().next();
+            sharedKeys.remove(eldest);
+            release(eldest.address, eldest.vaultCA, eldest.tlsSkipVerify);
+        }
+        return httpClient;
+    }
+
+    /**
+     * Closes and forgets the client for the given address and TLS settings, if there is one, however many references
+     * to it are held.
+     */
+    static synchronized void evict(String address, String vaultCA, boolean tlsSkipVerify) {
+        ClientKey key = new ClientKey(address, vaultCA, tlsSkipVerify);
+        sharedKeys.remove(key);
+        PooledClient client = clients.remove(key);
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * Closes every registered client and its connection pool.
+     */
+    static synchronized void closeAll() {
+        sharedKeys.clear();
+        for (ClientKey key : clients.keySet()) {
+            PooledClient client = clients.remove(key);
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * @return The number of registered clients, i.e. clients some snapshot or caller still refers to
+     */
+    static int size() {
+        return clients.size();
+    }
+
+    // Closes a released client after the grace period, or later if lookups still hold connections from its pool.
+    private static void closeWhenIdle(PooledClient client) {
+        closer().schedule(() -> {
+            if (client.connectionManager.getTotalStats().getLeased() > 0) {
+                closeWhenIdle(client);
+            } else {
+                client.close();
+            }
+        }, CLOSE_GRACE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService closer() {
+        if (closer == null) {
+            closer = Executors.newSingleThreadScheduledExecutor(ResolverExecutors.daemonThreadFactory("vault-http-client-closer"));
+        }
+        return closer;
+    }
+
+    /**
+     * Returns the connection pool statistics summed over every registered client.
+     */
+    static PoolStats totalStats() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+        for (PooledClient client : clients.values()) {
+            PoolStats stats = client.connectionManager.getTotalStats();
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+            max += stats.getMax();
+        }
+        return new PoolStats(leased, pending, available, max);
+    }
+
+    private static PooledClient create(String vaultCA, boolean tlsSkipVerify, int maxPerRoute, int maxTotal) throws TLSConfig.TLSException {
+        TLSConfig tlsConfig = new TLSConfig().verify(!tlsSkipVerify);
+        if (vaultCA != null && !vaultCA.equals("")) {
+            tlsConfig = tlsConfig.pemUTF8(vaultCA);
+        }
+        SSLContext sslContext = tlsConfig.build().getSslContext();
+
+        SSLConnectionSocketFactory sslsf;
+        if (sslContext != null) {
+            sslsf = new SSLConnectionSocketFactory(
+                sslContext,
+                null,
+                null,
+                SSLConnectionSocketFactory.getDefaultHostnameVerifier());
+        } else {
+            sslsf = SSLConnectionSocketFactory.getSocketFactory();
+        }
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", PlainConnectionSocketFactory.getSocketFactory())
+            .register("https", sslsf)
+            .build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+
+        CloseableHttpClient httpClient = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            // The resolver retries failed requests itself, with backoff and within the lookup's deadline, as set by
+            // PROP_MAX_RETRIES. HttpClient's own retries would multiply those and hide failures from the breaker.
+            .disableAutomaticRetries()
+            // Content compression is on by default: requests ask for gzip or deflate, and encoded responses are
+            // decompressed transparently. This runs before the decompression, so it sees the body as received.
+            .addInterceptorFirst(HttpClientRegistry::countWireBytes)
+            // Lookups set their own timeouts from the MID server properties, these cover any other request.
+            .setDefaultRequestConfig(ResolverConfig.requestConfig(CredentialResolver.DEFAULT_CONNECT_TIMEOUT,
+                CredentialResolver.DEFAULT_SOCKET_TIMEOUT, CredentialResolver.DEFAULT_CONNECTION_REQUEST_TIMEOUT))
+            .setKeepAliveStrategy((response, context) -> {
+                long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return keepAlive > 0 ? Math.min(keepAlive, DEFAULT_KEEP_ALIVE_MILLIS) : DEFAULT_KEEP_ALIVE_MILLIS;
+            })
+            .evictExpiredConnections()
+            .evictIdleConnections(DEFAULT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS)
+            .build();
+
+        return new PooledClient(httpClient, connectionManager);
+    }
+
+    private static void countWireBytes(HttpResponse response, HttpContext context) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return;
+        }
+        if (entity.getContentEncoding() != null) {
+            ResolverMetrics.get().recordCompressedResponse();
+        }
+        response.setEntity(new HttpEntityWrapper(entity) {
+            @Override
+            public InputStream getContent() throws IOException {
+                return ResolverMetrics.get().countWireBytes(super.getContent());
+            }
+        });
+    }
+
+    private static final class PooledClient {
+        private final CloseableHttpClient httpClient;
+        private final PoolingHttpClientConnectionManager connectionManager;
+        private int references; // guarded by HttpClientRegistry.class
+
+        PooledClient(CloseableHttpClient httpClient, PoolingHttpClientConnectionManager connectionManager) {
+            this.httpClient = httpClient;
+            this.connectionManager = connectionManager;
+        }
+
+        void resize(int maxPerRoute, int maxTotal) {
+            if (connectionManager.getDefaultMaxPerRoute() != maxPerRoute) {
+                connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+            }
+            if (connectionManager.getMaxTotal() != maxTotal) {
+                connectionManager.setMaxTotal(maxTotal);
+            }
+        }
+
+        void close() {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                // Nothing useful to do with a failure to close, the pool is being discarded anyway.
+            }
+        }
+    }
+
+    private static final class ClientKey {
+        private final String address;
+        private final String vaultCA;
+        private final boolean tlsSkipVerify;
+
+        ClientKey(String address, String vaultCA, boolean tlsSkipVerify) {
+            this.address = address;
+            this.vaultCA = vaultCA == null ? "" : vaultCA;
+            this.tlsSkipVerify = tlsSkipVerify;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey other = (ClientKey) o;
+            return tlsSkipVerify == other.tlsSkipVerify
+                && address.equals(other.address)
+                && vaultCA.equals(other.vaultCA);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(address, vaultCA, tlsSkipVerify);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>A lock-free histogram of latencies in nanoseconds, with a fixed memory footprint.</p>
+ *
+ * <p>Like HdrHistogram, values are bucketed by their power of two and then linearly within it, so a percentile is
+ * reported within 1/16th (about 6%) of the recorded value whether it is a microsecond or a minute. Recording takes a
+ * couple of atomic increments, cheap enough to do on every lookup.</p>
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        sum.add(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.sum(), max.get());
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // The highest value that falls into the given bucket.
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * A point in time copy of a histogram's counts.
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long sum;
+        private final long max;
+        private final long count;
+        private final double mean;
+
+        private Snapshot(long[] counts, long sum, long max) {
+            this.counts = counts;
+            this.sum = sum;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+            // The sum is read after the counts, so it may include a few values recorded since. Good enough for a mean.
+            this.mean = count == 0 ? 0 : (double) sum / count;
+            this.max = max;
+        }
+
+        /**
+         * @return A snapshot of the values recorded in both this and the other snapshot
+         */
+        Snapshot plus(Snapshot other) {
+            long[] combined = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                combined[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(combined, sum + other.sum, Math.max(max, other.max));
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        double getMean() {
+            return mean;
+        }
+
+        long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile Between 0 and 100
+         * @return The value at or below which the given percentage of recorded values fall, 0 if nothing was recorded
+         */
+        long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return Math.min(highestValue(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
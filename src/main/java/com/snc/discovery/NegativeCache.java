@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.apache.http.client.HttpResponseException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>Remembers credential ids Vault Agent answered with 403 or 404, so that Discovery asking for a misconfigured id
+ * again and again fails fast without a request to Vault Agent.</p>
+ *
+ * <p>A remembered failure is rethrown as a new {@link HttpResponseException} with the original status and message,
+ * including the errors Vault returned. Entries expire after {@link CredentialResolver#PROP_NEGATIVE_CACHE_TTL}, and
+ * the oldest entry is dropped when the cache is full.</p>
+ */
+final class NegativeCache {
+    private final LongSupplier nanoClock;
+    // Insertion ordered. Entries are replaced rather than updated, so with a fixed TTL the eldest expires first.
+    private final LinkedHashMap<String, Failure> entries = new LinkedHashMap<>();
+
+    NegativeCache() {
+        this(System::nanoTime);
+    }
+
+    // Visible for testing, with a fake clock.
+    NegativeCache(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Whether a failed lookup is one to remember: the path does not exist or the Agent's token may not read it.
+     */
+    static boolean isCacheable(Exception failure) {
+        if (!(failure instanceof HttpResponseException)) {
+            return false;
+        }
+        int status = ((HttpResponseException) failure).getStatusCode();
+        return status == 403 || status == 404;
+    }
+
+    /**
+     * @return A copy of the remembered failure for the id, or null if there is none or it has expired
+     */
+    synchronized HttpResponseException get(String id) {
+        Failure failure = entries.get(id);
+        if (failure == null) {
+            return null;
+        }
+        if (nanoClock.getAsLong() - failure.expiresAtNanos >= 0) {
+            entries.remove(id);
+            return null;
+        }
+        return new HttpResponseException(failure.status, failure.reasonPhrase);
+    }
+
+    synchronized void put(String id, HttpResponseException failure, long ttlNanos, int maxEntries) {
+        long now = nanoClock.getAsLong();
+        entries.remove(id);
+        entries.put(id, new Failure(failure.getStatusCode(), failure.getReasonPhrase(), now + ttlNanos));
+        // Drops expired entries from the head too, so ids that are never looked up again do not linger.
+        Iterator<Failure> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Failure eldest = iterator.next();
+            if (entries.size() <= maxEntries && now - eldest.expiresAtNanos < 0) {
+                break;
+            }
+            iterator.remove();
+        }
+    }
+
+    synchronized void remove(String id) {
+        entries.remove(id);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Failure {
+        private final int status;
+        private final String reasonPhrase;
+        private final long expiresAtNanos;
+
+        Failure(int status, String reasonPhrase, long expiresAtNanos) {
+            this.status = status;
+            this.reasonPhrase = reasonPhrase;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>Keeps cached credentials out of the Java heap, so that they do not show up in heap dumps and are not copied around
+ * by the garbage collector.</p>
+ *
+ * <p>Each entry's values are encrypted with AES-GCM under a key generated when the first entry is stored, which never
+ * leaves the process, and held in a direct {@link ByteBuffer}. They are only decrypted on a cache hit, into the map
+ * handed to the caller, and the buffer is overwritten with zeros as soon as the cache lets go of the entry. Temporary
+ * plaintext arrays are zeroed too, but the Strings of the returned map are as long-lived as the caller makes them.</p>
+ */
+final class OffHeapSecretStorage implements SecretCache.Storage {
+    static final OffHeapSecretStorage INSTANCE = new OffHeapSecretStorage();
+
+    // 128 bit keys work on every Java 8 runtime, including those without the unlimited strength policy.
+    private static final int KEY_BITS = 128;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final ThreadLocal<Cipher> CIPHER = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("AES/GCM is not available to encrypt cached credentials", e);
+        }
+    });
+
+    private OffHeapSecretStorage() {
+    }
+
+    @Override
+    public Object store(Map<String, String> values) {
+        byte[] plaintext = serialize(values);
+        byte[] iv = new byte[IV_BYTES];
+        RANDOM.nextBytes(iv);
+        try {
+            Cipher cipher = CIPHER.get();
+            cipher.init(Cipher.ENCRYPT_MODE, Key.VALUE, new GCMParameterSpec(TAG_BITS, iv));
+            ByteBuffer buffer = ByteBuffer.allocateDirect(IV_BYTES + cipher.getOutputSize(plaintext.length));
+            buffer.put(iv);
+            // Encrypts straight into the direct buffer, the ciphertext never exists on the heap.
+            cipher.doFinal(ByteBuffer.wrap(plaintext), buffer);
+            return new Sealed(buffer);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to encrypt cached credential", e);
+        } finally {
+            Arrays.fill(plaintext, (byte) 0);
+        }
+    }
+
+    @Override
+    public Map<String, String> load(Object stored) {
+        Sealed sealed = (Sealed) stored;
+        if (sealed.released) {
+            return null;
+        }
+        // Reads through a duplicate, as other threads may be loading the same entry.
+        ByteBuffer ciphertext = sealed.buffer.duplicate();
+        ciphertext.clear();
+        byte[] iv = new byte[IV_BYTES];
+        ciphertext.get(iv);
+        byte[] plaintext = null;
+        try {
+            Cipher cipher = CIPHER.get();
+            cipher.init(Cipher.DECRYPT_MODE, Key.VALUE, new GCMParameterSpec(TAG_BITS, iv));
+            plaintext = new byte[cipher.getOutputSize(ciphertext.remaining())];
+            ByteBuffer out = ByteBuffer.wrap(plaintext);
+            cipher.doFinal(ciphertext, out);
+            out.flip();
+            return deserialize(out);
+        } catch (AEADBadTagException e) {
+            if (sealed.released) {
+                // Zeroed while we were reading it.
+                return null;
+            }
+            throw new RuntimeException("Cached credential failed its integrity check", e);
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Failed to decrypt cached credential", e);
+        } finally {
+            if (plaintext != null) {
+                Arrays.fill(plaintext, (byte) 0);
+            }
+        }
+    }
+
+    @Override
+    public void release(Object stored) {
+        Sealed sealed = (Sealed) stored;
+        sealed.released = true;
+        ByteBuffer buffer = sealed.buffer.duplicate();
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    // Visible for testing.
+    static boolean isZeroed(Object stored) {
+        ByteBuffer buffer = ((Sealed) stored).buffer.duplicate();
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (buffer.get() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The values as an entry count followed by each key and value as a length and UTF-8 bytes, with a length of -1 for
+     * a null value. Strings are encoded straight into the buffer so that no intermediate copy is left on the heap. Keys
+     * must be credential values, as they are read back into a CredentialValues.
+     */
+    private static byte[] serialize(Map<String, String> values) {
+        int size = 4;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            size += 4 + utf8Length(entry.getKey()) + 4 + utf8Length(entry.getValue());
+        }
+        byte[] bytes = new byte[size];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(values.size());
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            putString(buffer, encoder, entry.getKey());
+            putString(buffer, encoder, entry.getValue());
+        }
+        return bytes;
+    }
+
+    private static int utf8Length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static void putString(ByteBuffer buffer, CharsetEncoder encoder, String s) {
+        if (s == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        int lengthAt = buffer.position();
+        buffer.position(lengthAt + 4);
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(s), buffer, true);
+        if (result.isError()) {
+            // A lone surrogate, which is not valid UTF-8. Vault's JSON would not contain one.
+            throw new IllegalArgumentException("Cached credential is not valid UTF-16: " + result);
+        }
+        encoder.flush(buffer);
+        buffer.putInt(lengthAt, buffer.position() - lengthAt - 4);
+    }
+
+    private static Map<String, String> deserialize(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        CredentialValues.Builder values = new CredentialValues.Builder();
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        for (int i = 0; i < count; i++) {
+            values.put(getString(buffer, decoder), getString(buffer, decoder));
+        }
+        return values.build();
+    }
+
+    private static String getString(ByteBuffer buffer, CharsetDecoder decoder) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer bytes = buffer.slice();
+        bytes.limit(length);
+        buffer.position(buffer.position() + length);
+        char[] chars = new char[length];
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.reset();
+        decoder.decode(bytes, out, true);
+        decoder.flush(out);
+        String s = new String(chars, 0, out.position());
+        Arrays.fill(chars, '\0');
+        return s;
+    }
+
+    private static final class Sealed {
+        private final ByteBuffer buffer;
+        private volatile boolean released;
+
+        Sealed(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    // Generated lazily, so that a resolver that never enables the off-heap cache never needs a key.
+    private static final class Key {
+        static final SecretKey VALUE;
+
+        static {
+            try {
+                KeyGenerator generator = KeyGenerator.getInstance("AES");
+                generator.init(KEY_BITS, RANDOM);
+                VALUE = generator.generateKey();
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException("AES is not available to encrypt cached credentials", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import static com.snc.discovery.CredentialResolver.*;
+
+/**
+ * <p>An immutable, validated snapshot of the resolver's MID server properties, together with the pooled HTTP clients
+ * (and so the SSLContext) they configure, one per Vault Agent address.</p>
+ *
+ * <p>The resolver reads the raw property values at most once every
+ * {@link CredentialResolver#CONFIG_CHECK_INTERVAL_MILLIS}, and only parses them into a new snapshot when one of them
+ * differs from the values the current snapshot was built from, see {@link #matches(String[])}.</p>
+ */
+final class ResolverConfig {
+    // The properties a snapshot is built from, in the order read() returns their values. New properties go here.
+    private static final String[] PROPERTIES = {
+        PROP_ADDRESS,
+        PROP_CA,
+        PROP_TLS_SKIP_VERIFY,
+        PROP_MAX_CONNECTIONS_PER_ROUTE,
+        PROP_MAX_CONNECTIONS,
+        PROP_CACHE_MAX_TTL,
+        PROP_CACHE_MAX_ENTRIES,
+        PROP_CACHE_OFF_HEAP,
+        PROP_NEGATIVE_CACHE_TTL,
+        PROP_BATCH_CONCURRENCY,
+        PROP_REFRESH_AHEAD_FRACTION,
+        PROP_REFRESH_AHEAD_MIN_HITS,
+        PROP_METRICS_LOG_INTERVAL,
+        PROP_LOG_LEVEL,
+        PROP_MAX_RETRIES,
+        PROP_RETRY_BACKOFF,
+        PROP_RETRY_MAX_BACKOFF,
+        PROP_CIRCUIT_BREAKER_THRESHOLD,
+        PROP_CIRCUIT_BREAKER_OPEN_TIME,
+        PROP_HEDGE_PERCENTILE,
+        PROP_HEDGE_MIN_DELAY,
+        PROP_HEDGE_BUDGET,
+        PROP_CONNECT_TIMEOUT,
+        PROP_SOCKET_TIMEOUT,
+        PROP_CONNECTION_REQUEST_TIMEOUT,
+        PROP_RESOLVE_TIMEOUT,
+        PROP_STALE_MAX_AGE,
+        PROP_FIELD_ALIASES,
+        PROP_PREFETCH_PROFILE,
+        PROP_PREFETCH_COUNT,
+    };
+
+    private final String[] rawValues;
+    private final List<String> vaultAddresses;
+    private final String vaultCA;
+    private final boolean tlsSkipVerify;
+    private final Map<String, CloseableHttpClient> httpClients;
+    private final int cacheMaxTtl;
+    private final int cacheMaxEntries;
+    private final boolean cacheOffHeap;
+    private final int negativeCacheTtl;
+    private final int batchConcurrency;
+    private final double refreshAheadFraction;
+    private final int refreshAheadMinHits;
+    private final int metricsLogInterval;
+    private final ResolverLog.Level logLevel;
+    private final int maxRetries;
+    private final int retryBackoff;
+    private final int retryMaxBackoff;
+    private final int circuitBreakerThreshold;
+    private final int circuitBreakerOpenTime;
+    private final double hedgePercentile;
+    private final int hedgeMinDelay;
+    private final double hedgeBudget;
+    private final int connectTimeout;
+    private final int socketTimeout;
+    private final int connectionRequestTimeout;
+    private final int resolveTimeout;
+    private final int staleMaxAge;
+    private final ExtractionPlan extractionPlan;
+    private final Path prefetchProfile;
+    private final int prefetchCount;
+    private final RequestConfig requestConfig;
+
+    private ResolverConfig(String[] rawValues) {
+        this.rawValues = rawValues;
+
+        vaultAddresses = addresses(raw(PROP_ADDRESS));
+        if (vaultAddresses.isEmpty()) {
+            throw new RuntimeException(String.format("MID server property %s is empty but required", PROP_ADDRESS));
+        }
+        vaultCA = raw(PROP_CA);
+        tlsSkipVerify = booleanValue(PROP_TLS_SKIP_VERIFY);
+
+        // A pool without connections would have every request wait out the connection request timeout.
+        int maxPerRoute = positiveIntValue(PROP_MAX_CONNECTIONS_PER_ROUTE, HttpClientRegistry.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        int maxTotal = positiveIntValue(PROP_MAX_CONNECTIONS, HttpClientRegistry.DEFAULT_MAX_CONNECTIONS);
+        cacheMaxTtl = intValue(PROP_CACHE_MAX_TTL, 0);
+        cacheMaxEntries = intValue(PROP_CACHE_MAX_ENTRIES, SecretCache.DEFAULT_MAX_ENTRIES);
+        cacheOffHeap = booleanValue(PROP_CACHE_OFF_HEAP);
+        negativeCacheTtl = nonNegativeIntValue(PROP_NEGATIVE_CACHE_TTL, 0);
+        batchConcurrency = intValue(PROP_BATCH_CONCURRENCY, DEFAULT_BATCH_CONCURRENCY);
+        refreshAheadFraction = doubleValue(PROP_REFRESH_AHEAD_FRACTION, 0);
+        refreshAheadMinHits = intValue(PROP_REFRESH_AHEAD_MIN_HITS, DEFAULT_REFRESH_AHEAD_MIN_HITS);
+        metricsLogInterval = intValue(PROP_METRICS_LOG_INTERVAL, 0);
+        logLevel = ResolverLog.parseLevel(PROP_LOG_LEVEL, raw(PROP_LOG_LEVEL));
+        maxRetries = nonNegativeIntValue(PROP_MAX_RETRIES, 0);
+        retryBackoff = nonNegativeIntValue(PROP_RETRY_BACKOFF, DEFAULT_RETRY_BACKOFF);
+        retryMaxBackoff = nonNegativeIntValue(PROP_RETRY_MAX_BACKOFF, DEFAULT_RETRY_MAX_BACKOFF);
+        // With several Agents a failing one is ejected by default, otherwise least-outstanding routing keeps favouring
+        // it, as its requests fail fast.
+        circuitBreakerThreshold = nonNegativeIntValue(PROP_CIRCUIT_BREAKER_THRESHOLD,
+            vaultAddresses.size() > 1 ? DEFAULT_MULTI_AGENT_CIRCUIT_BREAKER_THRESHOLD : 0);
+        circuitBreakerOpenTime = nonNegativeIntValue(PROP_CIRCUIT_BREAKER_OPEN_TIME, DEFAULT_CIRCUIT_BREAKER_OPEN_TIME);
+        hedgePercentile = percentValue(PROP_HEDGE_PERCENTILE, 0);
+        hedgeMinDelay = nonNegativeIntValue(PROP_HEDGE_MIN_DELAY, DEFAULT_HEDGE_MIN_DELAY);
+        hedgeBudget = percentValue(PROP_HEDGE_BUDGET, DEFAULT_HEDGE_BUDGET);
+        connectTimeout = nonNegativeIntValue(PROP_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+        socketTimeout = nonNegativeIntValue(PROP_SOCKET_TIMEOUT, DEFAULT_SOCKET_TIMEOUT);
+        connectionRequestTimeout = nonNegativeIntValue(PROP_CONNECTION_REQUEST_TIMEOUT, DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+        resolveTimeout = nonNegativeIntValue(PROP_RESOLVE_TIMEOUT, 0);
+        staleMaxAge = nonNegativeIntValue(PROP_STALE_MAX_AGE, 0);
+        try {
+            extractionPlan = ExtractionPlan.compile(raw(PROP_FIELD_ALIASES));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(String.format("MID server property %s is invalid: %s", PROP_FIELD_ALIASES, e.getMessage()));
+        }
+        prefetchProfile = pathValue(PROP_PREFETCH_PROFILE);
+        prefetchCount = nonNegativeIntValue(PROP_PREFETCH_COUNT, DEFAULT_PREFETCH_COUNT);
+        requestConfig = requestConfig(connectTimeout, socketTimeout, connectionRequestTimeout);
+
+        // Each Agent gets its own pool.
+        Map<String, CloseableHttpClient> clients = new HashMap<>();
+        try {
+            for (String address : vaultAddresses) {
+                clients.put(address, HttpClientRegistry.acquire(address, vaultCA, tlsSkipVerify, maxPerRoute, maxTotal));
+            }
+        } catch (TLSConfig.TLSException | RuntimeException e) {
+            for (String address : clients.keySet()) {
+                HttpClientRegistry.release(address, vaultCA, tlsSkipVerify);
+            }
+            if (e instanceof TLSConfig.TLSException) {
+                throw new RuntimeException("Failed to configure SSL context: " + e);
+            }
+            throw (RuntimeException) e;
+        }
+        httpClients = clients;
+    }
+
+    /**
+     * Gives back this snapshot's references to its HTTP clients, once it has been superseded. Clients the new snapshot
+     * uses as well stay open, the others are closed.
+     */
+    void releaseHttpClients() {
+        for (String address : httpClients.keySet()) {
+            HttpClientRegistry.release(address, vaultCA, tlsSkipVerify);
+        }
+    }
+
+    // The comma separated addresses of PROP_ADDRESS, without blanks and duplicates.
+    private static List<String> addresses(String raw) {
+        if (raw == null) {
+            return Collections.emptyList();
+        }
+        Set<String> addresses = new LinkedHashSet<>();
+        for (String address : raw.split(",")) {
+            if (!address.trim().isEmpty()) {
+                addresses.add(address.trim());
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(addresses));
+    }
+
+    /**
+     * Reads the raw values of every property a snapshot depends on.
+     */
+    static String[] read(Function<String, String> getProperty) {
+        String[] values = new String[PROPERTIES.length];
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            values[i] = getProperty.apply(PROPERTIES[i]);
+        }
+        return values;
+    }
+
+    /**
+     * Parses and validates raw property values as returned by {@link #read(Function)}.
+     *
+     * @throws RuntimeException if a property is missing or malformed, or the TLS settings are invalid
+     */
+    static ResolverConfig parse(String[] rawValues) {
+        return new ResolverConfig(rawValues);
+    }
+
+    /**
+     * Whether this snapshot was built from the given raw property values. The MID server hands out the same String
+     * instances until a property changes, so this is usually a series of reference comparisons.
+     */
+    boolean matches(String[] rawValues) {
+        return Arrays.equals(this.rawValues, rawValues);
+    }
+
+    List<String> getVaultAddresses() {
+        return vaultAddresses;
+    }
+
+    String getVaultCA() {
+        return vaultCA;
+    }
+
+    boolean isTlsSkipVerify() {
+        return tlsSkipVerify;
+    }
+
+    CloseableHttpClient getHttpClient(String address) {
+        return httpClients.get(address);
+    }
+
+    int getCacheMaxTtl() {
+        return cacheMaxTtl;
+    }
+
+    int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    boolean isCacheOffHeap() {
+        return cacheOffHeap;
+    }
+
+    int getNegativeCacheTtl() {
+        return negativeCacheTtl;
+    }
+
+    int getBatchConcurrency() {
+        return batchConcurrency;
+    }
+
+    double getRefreshAheadFraction() {
+        return refreshAheadFraction;
+    }
+
+    int getRefreshAheadMinHits() {
+        return refreshAheadMinHits;
+    }
+
+    int getMetricsLogInterval() {
+        return metricsLogInterval;
+    }
+
+    ResolverLog.Level getLogLevel() {
+        return logLevel;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    int getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    int getRetryMaxBackoff() {
+        return retryMaxBackoff;
+    }
+
+    int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    int getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    int getHedgeMinDelay() {
+        return hedgeMinDelay;
+    }
+
+    double getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    int getResolveTimeout() {
+        return resolveTimeout;
+    }
+
+    int getStaleMaxAge() {
+        return staleMaxAge;
+    }
+
+    ExtractionPlan getExtractionPlan() {
+        return extractionPlan;
+    }
+
+    /**
+     * Whether a credential resolved under the other snapshot resolves the same under this one, i.e. it comes from the
+     * same Vault Agents and is mapped with the same field aliases.
+     */
+    boolean resolvesLike(ResolverConfig other) {
+        return new HashSet<>(vaultAddresses).equals(new HashSet<>(other.vaultAddresses))
+            && Objects.equals(raw(PROP_FIELD_ALIASES), other.raw(PROP_FIELD_ALIASES));
+    }
+
+    /**
+     * @return The path of the access profile file, or null if no profile is kept
+     */
+    Path getPrefetchProfile() {
+        return prefetchProfile;
+    }
+
+    int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Returns the timeouts for a request to Vault Agent, each capped at the time left until the deadline.
+     */
+    RequestConfig requestConfig(Deadline deadline) {
+        if (deadline.isNone()) {
+            return requestConfig;
+        }
+        return requestConfig(deadline.cap(connectTimeout), deadline.cap(socketTimeout), deadline.cap(connectionRequestTimeout));
+    }
+
+    static RequestConfig requestConfig(int connectTimeout, int socketTimeout, int connectionRequestTimeout) {
+        return RequestConfig.custom()
+            .setConnectTimeout(connectTimeout)
+            .setSocketTimeout(socketTimeout)
+            .setConnectionRequestTimeout(connectionRequestTimeout)
+            .build();
+    }
+
+    private String raw(String name) {
+        for (int i = 0; i < PROPERTIES.length; i++) {
+            if (PROPERTIES[i].equals(name)) {
+                return rawValues[i];
+            }
+        }
+        throw new IllegalArgumentException("Not a resolver property: " + name);
+    }
+
+    private boolean booleanValue(String name) {
+        String raw = raw(name);
+        return raw != null && !raw.equals("") && Boolean.parseBoolean(raw);
+    }
+
+    private int intValue(String name, int defaultValue) {
+        String raw = raw(name);
+        if (raw == null || raw.equals("")) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(raw.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(String.format("MID server property %s must be an integer but was '%s'", name, raw));
+        }
+    }
+
+    private int positiveIntValue(String name, int defaultValue) {
+        int value = intValue(name, defaultValue);
+        if (value <= 0) {
+            throw new RuntimeException(String.format("MID server property %s must be greater than 0 but was '%s'", name, raw(name)));
+        }
+        return value;
+    }
+
+    private int nonNegativeIntValue(String name, int defaultValue) {
+        int value = intValue(name, defaultValue);
+        if (value < 0) {
+            throw new RuntimeException(String.format("MID server property %s must not be negative but was '%s'", name, raw(name)));
+        }
+        return value;
+    }
+
+    private double doubleValue(String name, double defaultValue) {
+        String raw = raw(name);
+        if (raw == null || raw.equals("")) {
+            return defaultValue;
+        }
+
+        try {
+            return Double.parseDouble(raw.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(String.format("MID server property %s must be a number but was '%s'", name, raw));
+        }
+    }
+
+    private double percentValue(String name, double defaultValue) {
+        double value = doubleValue(name, defaultValue);
+        if (!(value >= 0 && value <= 100)) {
+            throw new RuntimeException(String.format("MID server property %s must be between 0 and 100 but was '%s'", name, raw(name)));
+        }
+        return value;
+    }
+
+    private Path pathValue(String name) {
+        String value = raw(name);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Paths.get(value.trim());
+        } catch (InvalidPathException e) {
+            throw new RuntimeException(String.format("MID server property %s is invalid: %s", name, e.getMessage()));
+        }
+    }
+}
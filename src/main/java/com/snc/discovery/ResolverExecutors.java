@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Creates the executors the resolver fans work out on. All threads are daemons, so an idle resolver never keeps the
+ * MID server JVM alive. On Java 21 and later the bounded executors run tasks on virtual threads, see
+ * {@link VirtualThreads}.
+ */
+final class ResolverExecutors {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private ResolverExecutors() {
+    }
+
+    /**
+     * An executor running at most maxConcurrency tasks at once, queueing the rest. Idle threads exit after a minute.
+     */
+    static ExecutorService newBoundedExecutor(String name, int maxConcurrency) {
+        ThreadFactory virtualThreads = VirtualThreads.threadFactory(name);
+        if (virtualThreads != null) {
+            return new ThreadPerTaskExecutor(virtualThreads, maxConcurrency);
+        }
+        return newBoundedPlatformExecutor(name, maxConcurrency);
+    }
+
+    /**
+     * An executor starting a thread for each task unless an idle one is available. Only for tasks whose submitters wait
+     * for them, which bounds the threads by the number of waiting callers.
+     */
+    static ExecutorService newUnboundedExecutor(String name) {
+        ThreadFactory virtualThreads = VirtualThreads.threadFactory(name);
+        if (virtualThreads != null) {
+            return new ThreadPerTaskExecutor(virtualThreads, Integer.MAX_VALUE);
+        }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), daemonThreadFactory(name));
+    }
+
+    // Visible for testing, so that the pool is covered on every JVM.
+    static ExecutorService newBoundedPlatformExecutor(String name, int maxConcurrency) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency,
+            KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), daemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // Visible for testing, so that the executor virtual threads use is covered on every JVM.
+    static ExecutorService newBoundedThreadPerTaskExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+        return new ThreadPerTaskExecutor(threadFactory, maxConcurrency);
+    }
+
+    static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Starts a thread per task right away, which waits for a permit before running the task. Meant for virtual
+     * threads: waiting costs a parked virtual thread rather than a queue entry, and unlike a pool there are no idle
+     * threads to keep around. Permits are handed out fairly, so tasks start in the order they were submitted.
+     */
+    private static final class ThreadPerTaskExecutor extends AbstractExecutorService {
+        private final ThreadFactory threadFactory;
+        private final Semaphore permits;
+        private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        // Not synchronized, so that a virtual thread finishing a task never pins its carrier thread.
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition terminated = lock.newCondition();
+        private int active; // tasks whose thread has not finished, guarded by lock
+        private boolean shutdown; // guarded by lock
+
+        ThreadPerTaskExecutor(ThreadFactory threadFactory, int maxConcurrency) {
+            this.threadFactory = threadFactory;
+            this.permits = new Semaphore(maxConcurrency, true);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            lock.lock();
+            try {
+                if (shutdown) {
+                    throw new RejectedExecutionException("Executor has been shut down");
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                Thread thread = threadFactory.newThread(() -> {
+                    threads.add(Thread.currentThread());
+                    try {
+                        // Uninterruptibly, as a task that never runs would never complete its future. A task cancelled
+                        // while waiting does nothing once it runs.
+                        permits.acquireUninterruptibly();
+                        try {
+                            task.run();
+                        } finally {
+                            permits.release();
+                        }
+                    } finally {
+                        threads.remove(Thread.currentThread());
+                        finished();
+                    }
+                });
+                thread.start();
+            } catch (RuntimeException | Error e) {
+                finished();
+                throw e;
+            }
+        }
+
+        private void finished() {
+            lock.lock();
+            try {
+                if (--active == 0 && shutdown) {
+                    terminated.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            lock.lock();
+            try {
+                shutdown = true;
+                if (active == 0) {
+                    terminated.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            // Every task already has its thread, none are queued.
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            lock.lock();
+            try {
+                return shutdown;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean isTerminated() {
+            lock.lock();
+            try {
+                return shutdown && active == 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+            lock.lock();
+            try {
+                while (!(shutdown && active == 0)) {
+                    if (nanos <= 0) {
+                        return false;
+                    }
+                    nanos = terminated.awaitNanos(nanos);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>The resolver's log, written to stderr where the MID server picks it up.</p>
+ *
+ * <p>System.err is synchronized and unbuffered, so printing to it from every lookup serializes the threads resolving
+ * credentials. Instead, callers put a message's format and arguments on a bounded queue, and a single background thread
+ * formats and writes them. A caller never blocks: when the queue is full the message is dropped and counted, and the
+ * count is logged once there is room again.</p>
+ *
+ * <p>Messages below the level set by {@link CredentialResolver#PROP_LOG_LEVEL} are discarded before anything is
+ * queued. Callers guard messages with expensive arguments with {@link #isEnabled(Level)}.</p>
+ */
+final class ResolverLog {
+    enum Level {
+        ERROR, WARN, INFO, DEBUG
+    }
+
+    static final Level DEFAULT_LEVEL = Level.INFO;
+    private static final int QUEUE_CAPACITY = 4096;
+    // The writer drains this many messages per write to stderr.
+    private static final int BATCH_SIZE = 256;
+
+    private static final BlockingQueue<Message> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile Level level = DEFAULT_LEVEL;
+
+    static {
+        Thread writer = ResolverExecutors.daemonThreadFactory("vault-credential-log").newThread(ResolverLog::writeLoop);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ResolverLog::flush, "vault-credential-log-flush"));
+    }
+
+    private ResolverLog() {
+    }
+
+    static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) <= 0;
+    }
+
+    static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * Parses the value of {@link CredentialResolver#PROP_LOG_LEVEL}, case insensitively.
+     */
+    static Level parseLevel(String name, String raw) {
+        if (raw == null || raw.equals("")) {
+            return DEFAULT_LEVEL;
+        }
+        try {
+            return Level.valueOf(raw.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(String.format("MID server property %s must be one of error, warn, info or debug but was '%s'", name, raw));
+        }
+    }
+
+    static void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    static void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    static void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    static void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    private static void log(Level messageLevel, String format, Object[] args) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        if (!queue.offer(new Message(format, args))) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Writes every message still queued from the calling thread, e.g. at shutdown.
+     */
+    static synchronized void flush() {
+        List<Message> batch = new ArrayList<>();
+        queue.drainTo(batch);
+        write(batch);
+    }
+
+    private static void writeLoop() {
+        List<Message> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                Message first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                synchronized (ResolverLog.class) {
+                    write(batch);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private static void write(List<Message> batch) {
+        // Looked up per batch, as the MID server (or a test) may replace System.err.
+        PrintStream err = System.err;
+        long droppedCount = dropped.sumThenReset();
+        if (droppedCount > 0) {
+            err.println("Vault credential resolver log queue was full, dropped " + droppedCount + " messages");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Message message : batch) {
+            sb.append(message.format()).append(System.lineSeparator());
+        }
+        if (sb.length() > 0) {
+            err.print(sb);
+            err.flush();
+        }
+    }
+
+    private static final class Message {
+        private final String format;
+        private final Object[] args;
+
+        Message(String format, Object[] args) {
+            this.format = format;
+            this.args = args;
+        }
+
+        String format() {
+            if (args.length == 0) {
+                return format;
+            }
+            try {
+                return String.format(format, args);
+            } catch (RuntimeException e) {
+                // A message that fails to format must not stop the log, write what we have.
+                return format;
+            }
+        }
+    }
+}
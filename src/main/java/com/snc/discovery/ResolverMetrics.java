@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.apache.http.pool.PoolStats;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>The process-wide registry of resolver metrics. Everything is kept in memory with counters and
+ * {@link LatencyHistogram}s, so recording costs a few atomic operations and needs no external service.</p>
+ *
+ * <p>Metrics are read through JMX, see {@link ResolverMetricsMXBean}, or logged periodically to stderr along with
+ * the resolver's other output when {@link CredentialResolver#PROP_METRICS_LOG_INTERVAL} is set.</p>
+ */
+final class ResolverMetrics implements ResolverMetricsMXBean {
+    static final String OBJECT_NAME = "com.snc.discovery:type=VaultCredentialResolver";
+
+    private static final ResolverMetrics INSTANCE = new ResolverMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Another copy of the resolver, e.g. loaded by a different class loader, has registered first.
+        } catch (JMException e) {
+            ResolverLog.warn("Failed to register resolver metrics with JMX: %s", e);
+        }
+    }
+
+    private final LatencyHistogram resolveLatency = new LatencyHistogram();
+    private final LatencyHistogram vaultRequestLatency = new LatencyHistogram();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder negativeCacheHits = new LongAdder();
+    private final LongAdder coalescedRequests = new LongAdder();
+    private final Map<String, LongAdder> httpStatusCounts = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errorCounts = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> agentRequestCounts = new ConcurrentHashMap<>();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder wireBytesRead = new LongAdder();
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder tlsContextBuilds = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder circuitBreakerOpens = new LongAdder();
+    private final LongAdder staleServes = new LongAdder();
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    private ScheduledExecutorService logScheduler; // guarded by this
+    private ScheduledFuture<?> logTask; // guarded by this
+    private int logIntervalSeconds; // guarded by this
+
+    private ResolverMetrics() {
+    }
+
+    static ResolverMetrics get() {
+        return INSTANCE;
+    }
+
+    void recordResolve(long nanos) {
+        resolveLatency.record(nanos);
+    }
+
+    void recordVaultRequest(long nanos) {
+        vaultRequestLatency.record(nanos);
+    }
+
+    void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    void recordNegativeCacheHit() {
+        negativeCacheHits.increment();
+    }
+
+    void recordCoalesced() {
+        coalescedRequests.increment();
+    }
+
+    void recordHttpStatus(int status) {
+        increment(httpStatusCounts, Integer.toString(status));
+    }
+
+    void recordError(Throwable error) {
+        increment(errorCounts, error.getClass().getSimpleName());
+    }
+
+    void recordAgentRequest(String address) {
+        increment(agentRequestCounts, address);
+    }
+
+    void recordTlsContextBuild() {
+        tlsContextBuilds.increment();
+    }
+
+    void recordRetry() {
+        retries.increment();
+    }
+
+    void recordCircuitBreakerOpened() {
+        circuitBreakerOpens.increment();
+    }
+
+    void recordStaleServe() {
+        staleServes.increment();
+    }
+
+    void recordHedgeSent() {
+        hedgesSent.increment();
+    }
+
+    void recordHedgeWon() {
+        hedgesWon.increment();
+    }
+
+    void recordCompressedResponse() {
+        compressedResponses.increment();
+    }
+
+    LatencyHistogram.Snapshot vaultRequestLatency() {
+        return vaultRequestLatency.snapshot();
+    }
+
+    /**
+     * Wraps a response body so that the bytes read from it are counted.
+     */
+    InputStream countBytes(InputStream in) {
+        return counting(in, bytesRead);
+    }
+
+    /**
+     * Wraps a response body as received, before it is decompressed, so that the bytes read from it are counted.
+     */
+    InputStream countWireBytes(InputStream in) {
+        return counting(in, wireBytesRead);
+    }
+
+    private static InputStream counting(InputStream in, LongAdder counter) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    counter.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    counter.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Logs a snapshot of the metrics every intervalSeconds, or stops logging them if intervalSeconds is not positive.
+     */
+    synchronized void logEvery(int intervalSeconds) {
+        if (intervalSeconds == logIntervalSeconds) {
+            return;
+        }
+        if (logTask != null) {
+            logTask.cancel(false);
+            logTask = null;
+        }
+        logIntervalSeconds = intervalSeconds;
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        if (logScheduler == null) {
+            logScheduler = Executors.newSingleThreadScheduledExecutor(ResolverExecutors.daemonThreadFactory("vault-credential-metrics"));
+        }
+        logTask = logScheduler.scheduleAtFixedRate(() -> ResolverLog.info("%s", snapshot()),
+            intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private static void increment(Map<String, LongAdder> counts, String key) {
+        counts.computeIfAbsent(key, k -> new LongAdder()).increment();
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> counts) {
+        Map<String, Long> sums = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+            sums.put(entry.getKey(), entry.getValue().sum());
+        }
+        return sums;
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public long getResolveCount() {
+        return resolveLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getResolveLatencyP50Micros() {
+        return micros(resolveLatency.snapshot().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getResolveLatencyP99Micros() {
+        return micros(resolveLatency.snapshot().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getResolveLatencyMaxMicros() {
+        return micros(resolveLatency.snapshot().getMax());
+    }
+
+    @Override
+    public long getVaultRequestCount() {
+        return vaultRequestLatency.snapshot().getCount();
+    }
+
+    @Override
+    public long getVaultRequestLatencyP50Micros() {
+        return micros(vaultRequestLatency.snapshot().getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getVaultRequestLatencyP99Micros() {
+        return micros(vaultRequestLatency.snapshot().getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getVaultRequestLatencyMaxMicros() {
+        return micros(vaultRequestLatency.snapshot().getMax());
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getNegativeCacheHits() {
+        return negativeCacheHits.sum();
+    }
+
+    @Override
+    public long getCoalescedRequests() {
+        return coalescedRequests.sum();
+    }
+
+    @Override
+    public Map<String, Long> getHttpStatusCounts() {
+        return sums(httpStatusCounts);
+    }
+
+    @Override
+    public Map<String, Long> getErrorCounts() {
+        return sums(errorCounts);
+    }
+
+    @Override
+    public Map<String, Long> getAgentRequestCounts() {
+        return sums(agentRequestCounts);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getWireBytesRead() {
+        return wireBytesRead.sum();
+    }
+
+    @Override
+    public long getCompressedResponses() {
+        return compressedResponses.sum();
+    }
+
+    @Override
+    public long getTlsContextBuilds() {
+        return tlsContextBuilds.sum();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getCircuitBreakerOpens() {
+        return circuitBreakerOpens.sum();
+    }
+
+    @Override
+    public long getStaleServes() {
+        return staleServes.sum();
+    }
+
+    @Override
+    public long getHedgesSent() {
+        return hedgesSent.sum();
+    }
+
+    @Override
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    @Override
+    public int getPoolLeasedConnections() {
+        return HttpClientRegistry.totalStats().getLeased();
+    }
+
+    @Override
+    public int getPoolAvailableConnections() {
+        return HttpClientRegistry.totalStats().getAvailable();
+    }
+
+    @Override
+    public int getPoolPendingRequests() {
+        return HttpClientRegistry.totalStats().getPending();
+    }
+
+    @Override
+    public int getPoolMaxConnections() {
+        return HttpClientRegistry.totalStats().getMax();
+    }
+
+    @Override
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder("Vault credential resolver metrics:");
+        appendLatency(sb, "resolve", resolveLatency.snapshot());
+        appendLatency(sb, "vault_request", vaultRequestLatency.snapshot());
+        sb.append(" cache_hits=").append(getCacheHits());
+        sb.append(" cache_misses=").append(getCacheMisses());
+        sb.append(" negative_cache_hits=").append(getNegativeCacheHits());
+        sb.append(" coalesced_requests=").append(getCoalescedRequests());
+        sb.append(" http_status=").append(getHttpStatusCounts());
+        sb.append(" errors=").append(getErrorCounts());
+        sb.append(" agent_requests=").append(getAgentRequestCounts());
+        sb.append(" bytes_read=").append(getBytesRead());
+        sb.append(" wire_bytes_read=").append(getWireBytesRead());
+        sb.append(" compressed_responses=").append(getCompressedResponses());
+        sb.append(" tls_context_builds=").append(getTlsContextBuilds());
+        sb.append(" retries=").append(getRetries());
+        sb.append(" circuit_breaker_opens=").append(getCircuitBreakerOpens());
+        sb.append(" stale_serves=").append(getStaleServes());
+        sb.append(" hedges_sent=").append(getHedgesSent());
+        sb.append(" hedges_won=").append(getHedgesWon());
+        PoolStats pool = HttpClientRegistry.totalStats();
+        sb.append(" pool_leased=").append(pool.getLeased());
+        sb.append(" pool_available=").append(pool.getAvailable());
+        sb.append(" pool_pending=").append(pool.getPending());
+        sb.append(" pool_max=").append(pool.getMax());
+        return sb.toString();
+    }
+
+    private static void appendLatency(StringBuilder sb, String name, LatencyHistogram.Snapshot latency) {
+        sb.append(' ').append(name).append("_count=").append(latency.getCount());
+        sb.append(' ').append(name).append("_mean_us=").append(micros((long) latency.getMean()));
+        sb.append(' ').append(name).append("_p50_us=").append(micros(latency.getValueAtPercentile(50)));
+        sb.append(' ').append(name).append("_p90_us=").append(micros(latency.getValueAtPercentile(90)));
+        sb.append(' ').append(name).append("_p99_us=").append(micros(latency.getValueAtPercentile(99)));
+        sb.append(' ').append(name).append("_max_us=").append(micros(latency.getMax()));
+    }
+}
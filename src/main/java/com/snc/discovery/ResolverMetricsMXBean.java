@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.Map;
+
+/**
+ * <p>The resolver's metrics as exposed over JMX, under {@value ResolverMetrics#OBJECT_NAME}.</p>
+ *
+ * <p>Counters are cumulative since the MID server started. Latencies are in microseconds: resolve latency covers a
+ * whole {@link CredentialResolver#resolve(Map)} call including cache hits, Vault request latency only the requests
+ * sent to Vault Agent.</p>
+ */
+public interface ResolverMetricsMXBean {
+    long getResolveCount();
+
+    long getResolveLatencyP50Micros();
+
+    long getResolveLatencyP99Micros();
+
+    long getResolveLatencyMaxMicros();
+
+    long getVaultRequestCount();
+
+    long getVaultRequestLatencyP50Micros();
+
+    long getVaultRequestLatencyP99Micros();
+
+    long getVaultRequestLatencyMaxMicros();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    /**
+     * @return The number of lookups failed with a remembered 403 or 404 instead of a request to Vault Agent
+     */
+    long getNegativeCacheHits();
+
+    /**
+     * @return The number of lookups that shared another lookup's outstanding request to Vault Agent for the same id
+     */
+    long getCoalescedRequests();
+
+    /**
+     * @return The number of Vault Agent responses per HTTP status code
+     */
+    Map<String, Long> getHttpStatusCounts();
+
+    /**
+     * @return The number of failed lookups per exception type, e.g. HttpResponseException for an error from Vault
+     */
+    Map<String, Long> getErrorCounts();
+
+    /**
+     * @return The number of requests sent to each Vault Agent address
+     */
+    Map<String, Long> getAgentRequestCounts();
+
+    /**
+     * @return The number of response body bytes read from Vault Agent, after decompression
+     */
+    long getBytesRead();
+
+    /**
+     * @return The number of response body bytes as received from Vault Agent, before decompression
+     */
+    long getWireBytesRead();
+
+    /**
+     * @return The number of Vault Agent responses that came gzip or deflate encoded
+     */
+    long getCompressedResponses();
+
+    long getTlsContextBuilds();
+
+    /**
+     * @return The number of Vault Agent requests that were retried after failing
+     */
+    long getRetries();
+
+    /**
+     * @return How many times a circuit breaker opened because Vault Agent kept failing
+     */
+    long getCircuitBreakerOpens();
+
+    /**
+     * @return The number of lookups answered with an expired cached credential because Vault Agent was failing
+     */
+    long getStaleServes();
+
+    /**
+     * @return The number of second requests sent because Vault Agent was slow to answer the first
+     */
+    long getHedgesSent();
+
+    /**
+     * @return The number of hedged requests that answered before the request they hedged
+     */
+    long getHedgesWon();
+
+    int getPoolLeasedConnections();
+
+    int getPoolAvailableConnections();
+
+    int getPoolPendingRequests();
+
+    int getPoolMaxConnections();
+
+    /**
+     * @return Every metric on a single line, as logged periodically when
+     * {@link CredentialResolver#PROP_METRICS_LOG_INTERVAL} is set
+     */
+    String snapshot();
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>A bounded, in-memory cache of extracted credentials keyed by credential id.</p>
+ *
+ * <p>Each entry expires after its own TTL, which the resolver derives from the Vault response's lease. When the
+ * cache is full the least recently used entry is evicted.</p>
+ *
+ * <p>Entries count their hits, so hot entries can be refreshed ahead of expiry, see {@link #refreshCandidates}.</p>
+ *
+ * <p>Expired entries may be retained for a while longer, see {@link #retainStale(long)}, to be served by
+ * {@link #getStale(String)} while Vault Agent is unavailable.</p>
+ *
+ * <p>How the values themselves are held is up to the cache's {@link Storage}: as they are on the heap, or encrypted
+ * off-heap by {@link OffHeapSecretStorage}.</p>
+ */
+final class SecretCache {
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * Keeps the value maps as they are, on the heap.
+     */
+    static final Storage ON_HEAP = new Storage() {
+        @Override
+        public Object store(Map<String, String> values) {
+            return values;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map<String, String> load(Object stored) {
+            return (Map<String, String>) stored;
+        }
+
+        @Override
+        public void release(Object stored) {
+        }
+    };
+
+    private final Storage storage;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<String, CachedSecret> entries = new LinkedHashMap<String, CachedSecret>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedSecret> eldest) {
+            if (size() > maxEntries) {
+                storage.release(eldest.getValue().stored);
+                return true;
+            }
+            return false;
+        }
+    };
+    private int maxEntries;
+    private long staleNanos;
+
+    SecretCache(int maxEntries) {
+        this(maxEntries, ON_HEAP);
+    }
+
+    SecretCache(int maxEntries, Storage storage) {
+        this(maxEntries, storage, System::nanoTime);
+    }
+
+    // Exposed to unit tests so expiry can be driven without sleeping.
+    SecretCache(int maxEntries, LongSupplier nanoClock) {
+        this(maxEntries, ON_HEAP, nanoClock);
+    }
+
+    SecretCache(int maxEntries, Storage storage, LongSupplier nanoClock) {
+        this.maxEntries = maxEntries;
+        this.storage = storage;
+        this.nanoClock = nanoClock;
+    }
+
+    Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * Returns the cached credential for the id, or null if there is none or it has expired.
+     */
+    Map<String, String> get(String id) {
+        Object stored;
+        synchronized (this) {
+            CachedSecret entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            long expiredForNanos = nanoClock.getAsLong() - entry.expiresAtNanos;
+            if (expiredForNanos >= 0) {
+                if (expiredForNanos >= staleNanos) {
+                    remove(id);
+                }
+                return null;
+            }
+            entry.hits++;
+            stored = entry.stored;
+        }
+        // Outside the lock, as loading may mean decrypting. An entry evicted meanwhile loads as null, a miss.
+        return storage.load(stored);
+    }
+
+    /**
+     * Returns the cached credential for the id even if it has expired, as long as it expired less than the retained
+     * staleness ago. Returns null otherwise.
+     */
+    Map<String, String> getStale(String id) {
+        Object stored;
+        synchronized (this) {
+            CachedSecret entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (nanoClock.getAsLong() - entry.expiresAtNanos >= staleNanos) {
+                remove(id);
+                return null;
+            }
+            stored = entry.stored;
+        }
+        return storage.load(stored);
+    }
+
+    /**
+     * Keeps expired entries for up to staleNanos after they expire, for {@link #getStale(String)}. 0 (the default)
+     * drops entries as soon as they expire.
+     */
+    synchronized void retainStale(long staleNanos) {
+        this.staleNanos = staleNanos;
+    }
+
+    /**
+     * Caches the credential for the id for at most ttlNanos. Non-positive TTLs are not cached.
+     */
+    void put(String id, Map<String, String> values, long ttlNanos) {
+        if (ttlNanos <= 0) {
+            synchronized (this) {
+                remove(id);
+            }
+            return;
+        }
+        Object stored = storage.store(values);
+        synchronized (this) {
+            CachedSecret replaced = entries.put(id, new CachedSecret(stored, nanoClock.getAsLong() + ttlNanos, ttlNanos));
+            if (replaced != null) {
+                storage.release(replaced.stored);
+            }
+        }
+    }
+
+    /**
+     * <p>Returns the ids of hot entries that are due a refresh: entries hit at least minHits times since they were
+     * cached, whose remaining TTL has dropped to the given fraction of their full TTL.</p>
+     *
+     * <p>Returned entries are marked as refreshing and are not returned again until they are replaced by
+     * {@link #put} or released by {@link #refreshFailed}. Cold entries are left to expire.</p>
+     */
+    synchronized List<String> refreshCandidates(double fraction, int minHits) {
+        long now = nanoClock.getAsLong();
+        List<String> ids = new ArrayList<>();
+        for (Map.Entry<String, CachedSecret> e : entries.entrySet()) {
+            CachedSecret entry = e.getValue();
+            long remaining = entry.expiresAtNanos - now;
+            if (!entry.refreshing && entry.hits >= minHits && remaining > 0 && remaining <= entry.ttlNanos * fraction) {
+                entry.refreshing = true;
+                ids.add(e.getKey());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Marks an entry as refreshing, e.g. to revalidate a stale entry in the background.
+     *
+     * @return false if there is no such entry or it is already being refreshed
+     */
+    synchronized boolean startRefresh(String id) {
+        CachedSecret entry = entries.get(id);
+        if (entry == null || entry.refreshing) {
+            return false;
+        }
+        entry.refreshing = true;
+        return true;
+    }
+
+    /**
+     * Makes an entry whose refresh failed eligible for another attempt.
+     */
+    synchronized void refreshFailed(String id) {
+        // get() would count as an access and reorder the LRU list, so look the entry up without touching it.
+        for (Map.Entry<String, CachedSecret> e : entries.entrySet()) {
+            if (e.getKey().equals(id)) {
+                e.getValue().refreshing = false;
+                return;
+            }
+        }
+    }
+
+    synchronized void resize(int maxEntries) {
+        if (this.maxEntries == maxEntries) {
+            return;
+        }
+        this.maxEntries = maxEntries;
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+        }
+    }
+
+    synchronized void clear() {
+        for (CachedSecret entry : entries.values()) {
+            storage.release(entry.stored);
+        }
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    // Callers hold the lock.
+    private void remove(String id) {
+        CachedSecret entry = entries.remove(id);
+        if (entry != null) {
+            storage.release(entry.stored);
+        }
+    }
+
+    /**
+     * Holds cached values in memory. The cache calls release exactly once for everything it stored, when the entry is
+     * evicted, expires or is replaced, and may call load concurrently with that release.
+     */
+    interface Storage {
+        Object store(Map<String, String> values);
+
+        /**
+         * @return The stored values, or null if they have been released
+         */
+        Map<String, String> load(Object stored);
+
+        void release(Object stored);
+    }
+
+    private static final class CachedSecret {
+        private final Object stored;
+        private final long expiresAtNanos;
+        private final long ttlNanos;
+        private int hits;
+        private boolean refreshing;
+
+        CachedSecret(Object stored, long expiresAtNanos, long ttlNanos) {
+            this.stored = stored;
+            this.expiresAtNanos = expiresAtNanos;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Deduplicates concurrent calls for the same key.</p>
+ *
+ * <p>The first caller for a key runs the call, every caller that arrives while it is outstanding waits for and
+ * shares its result, or its exception. Once the call completes the key is forgotten, so later callers start a new
+ * call.</p>
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final Runnable onCoalesced;
+
+    SingleFlight() {
+        this(() -> { });
+    }
+
+    /**
+     * @param onCoalesced Called for every call served by another caller's outstanding call, e.g. to count it in the
+     *                    resolver's metrics
+     */
+    SingleFlight(Runnable onCoalesced) {
+        this.onCoalesced = onCoalesced;
+    }
+
+    interface Call<V> {
+        V call() throws IOException;
+    }
+
+    V execute(K key, Call<V> call) throws IOException {
+        calls.increment();
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            onCoalesced.run();
+            return await(existing);
+        }
+
+        try {
+            V value = call.call();
+            future.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * Like {@link #execute(Object, Call)}, but runs the call on the executor. A caller that arrives while a call for
+     * the key is outstanding gets that call's future and does not occupy a thread while it waits.
+     */
+    CompletableFuture<V> executeAsync(K key, Executor executor, Call<V> call) {
+        calls.increment();
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalesced.increment();
+            onCoalesced.run();
+            return existing;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (IOException | RuntimeException | Error e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * The number of calls made, including coalesced ones.
+     */
+    long getCalls() {
+        return calls.sum();
+    }
+
+    /**
+     * The number of calls that were served by another caller's outstanding call.
+     */
+    long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an in-flight Vault request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
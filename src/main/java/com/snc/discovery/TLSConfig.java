@@ -16,10 +16,15 @@ import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * <p>A container for SSL-related configuration options, meant to be stored within a {@link CredentialResolver} instance.</p>
@@ -35,6 +40,7 @@ public class TLSConfig implements Serializable {
 
     private boolean verify;
     private transient SSLContext sslContext;
+    private transient KeyStore trustStore;
     private String pemUTF8;  // exposed to unit tests
     private Boolean verifyObject;
 
@@ -44,6 +50,15 @@ public class TLSConfig implements Serializable {
      */
     private static SSLContext DISABLED_SSL_CONTEXT;
 
+    /**
+     * Trust stores and SSLContexts built from PEM data, keyed by a digest of the PEM. Building them means parsing every
+     * certificate of the bundle and initialising a trust store, which is far too expensive to repeat for every
+     * credential lookup. Only configurations that verify certificates use them.
+     */
+    private static final Map<String, TrustMaterial> TRUST_MATERIAL_CACHE = new ConcurrentHashMap<>();
+    // There is normally a single CA configured per MID server, so this is only a guard against unbounded growth.
+    private static final int TRUST_MATERIAL_CACHE_MAX_SIZE = 16;
+
     static {
         try {
             DISABLED_SSL_CONTEXT = SSLContext.getInstance("TLS");
@@ -89,7 +104,8 @@ public class TLSConfig implements Serializable {
      * containing the certificate data.  This string should meet the following requirements:</p>
      *
      * <ul>
-     *     <li>Contain an unencrypted X.509 certificate, in PEM format.</li>
+     *     <li>Contain one or more unencrypted X.509 certificates, in PEM format. All of them are trusted, so a CA
+     *     bundle holding a root and its intermediates may be supplied as is.</li>
      *     <li>Use UTF-8 encoding.</li>
      *     <li>
      *          Contain a line-break between the certificate header (e.g. "-----BEGIN CERTIFICATE-----") and the
@@ -128,7 +144,9 @@ public class TLSConfig implements Serializable {
         }
 
         if (verify && pemUTF8 != null) {
-            this.sslContext = buildSslContextFromPem();
+            final TrustMaterial trustMaterial = cachedTrustMaterialFromPem();
+            this.sslContext = trustMaterial.sslContext;
+            this.trustStore = trustMaterial.trustStore;
         } else if (!verify) {
             this.sslContext = DISABLED_SSL_CONTEXT;
         }
@@ -143,44 +161,113 @@ public class TLSConfig implements Serializable {
         return sslContext;
     }
 
+    /**
+     * @return The trust store holding every certificate of the PEM data, or null if no PEM data was used. It is shared
+     * by every TLSConfig built from the same PEM data, so it must not be modified
+     */
+    KeyStore getTrustStore() {
+        return trustStore;
+    }
+
     protected String getPemUTF8() {
         return pemUTF8;
     }
 
     /**
-     * Constructs an SSLContext, when server cert data was provided in PEM format.
+     * Drops any cached trust store and SSLContext built from the given PEM data, e.g. because the CA MID server
+     * property changed.
      *
-     * @return An SSLContext, constructed with the PEM data supplied.
+     * @param pemUTF8 PEM data previously passed to <code>pemUTF8()</code>
+     */
+    public static void invalidate(final String pemUTF8) {
+        if (pemUTF8 == null) {
+            return;
+        }
+        TRUST_MATERIAL_CACHE.remove(digest(pemUTF8));
+    }
+
+    /**
+     * Returns the cached trust material for this configuration's PEM data, building and caching it on first use.
+     */
+    private TrustMaterial cachedTrustMaterialFromPem() throws TLSException {
+        final String key = digest(pemUTF8);
+        TrustMaterial cached = TRUST_MATERIAL_CACHE.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final TrustMaterial built = buildTrustMaterialFromPem();
+        ResolverMetrics.get().recordTlsContextBuild();
+        if (TRUST_MATERIAL_CACHE.size() >= TRUST_MATERIAL_CACHE_MAX_SIZE) {
+            TRUST_MATERIAL_CACHE.clear();
+        }
+        cached = TRUST_MATERIAL_CACHE.putIfAbsent(key, built);
+        return cached != null ? cached : built;
+    }
+
+    private static String digest(final String pemUTF8) {
+        final byte[] hash;
+        try {
+            hash = MessageDigest.getInstance("SHA-256").digest(pemUTF8.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+        final StringBuilder hex = new StringBuilder(hash.length * 2);
+        for (final byte b : hash) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Constructs a trust store and SSLContext, when server cert data was provided in PEM format.
+     *
+     * @return The trust store holding every certificate in the PEM data, and an SSLContext trusting them.
      * @throws TLSException
      */
-    private SSLContext buildSslContextFromPem() throws TLSException {
+    private TrustMaterial buildTrustMaterialFromPem() throws TLSException {
         try {
             final CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
 
-            TrustManager[] trustManagers = null;
-            if (pemUTF8 != null) {
-                final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-                // Convert the trusted servers PEM data into an X509Certificate
-                X509Certificate certificate;
-                try (final ByteArrayInputStream pem = new ByteArrayInputStream(pemUTF8.getBytes(StandardCharsets.UTF_8))) {
-                    certificate = (X509Certificate) certificateFactory.generateCertificate(pem);
-                }
-                // Build a truststore
-                final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
-                keyStore.load(null);
-                keyStore.setCertificateEntry("caCert", certificate);
-                trustManagerFactory.init(keyStore);
-                trustManagers = trustManagerFactory.getTrustManagers();
+            // Convert the trusted servers PEM data into X509Certificates, there may be a whole chain of them
+            final Collection<? extends Certificate> certificates;
+            try (final ByteArrayInputStream pem = new ByteArrayInputStream(pemUTF8.getBytes(StandardCharsets.UTF_8))) {
+                certificates = certificateFactory.generateCertificates(pem);
+            }
+            if (certificates.isEmpty()) {
+                throw new CertificateException("No certificates found in PEM data");
+            }
+
+            // Build a truststore
+            final KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null);
+            int index = 0;
+            for (final Certificate certificate : certificates) {
+                keyStore.setCertificateEntry(index == 0 ? "caCert" : "caCert-" + index, certificate);
+                index++;
             }
+            final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(keyStore);
 
             final SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, trustManagers, null);
-            return sslContext;
+            sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+            return new TrustMaterial(keyStore, sslContext);
         } catch (CertificateException | IOException | NoSuchAlgorithmException | KeyStoreException | KeyManagementException e) {
             throw new TLSException(e);
         }
     }
 
+    private static final class TrustMaterial {
+        private final KeyStore trustStore;
+        private final SSLContext sslContext;
+
+        TrustMaterial(final KeyStore trustStore, final SSLContext sslContext) {
+            this.trustStore = trustStore;
+            this.sslContext = sslContext;
+        }
+    }
+
     public static class TLSException extends Exception {
 
         public TLSException(final Throwable t) {
@@ -5,17 +5,40 @@
 
 package com.snc.discovery;
 
-import com.google.gson.JsonObject;
+import java.util.Map;
 
 public class VaultSecret {
-    private JsonObject data;
-    private String[] warnings;
+    private final Map<String, String> data;
+    private final String[] warnings;
+    private final long leaseDuration;
+    private final long dataTtl;
 
-    public JsonObject getData() {
+    VaultSecret(Map<String, String> data, String[] warnings, long leaseDuration, long dataTtl) {
+        this.data = data;
+        this.warnings = warnings;
+        this.leaseDuration = leaseDuration;
+        this.dataTtl = dataTtl;
+    }
+
+    /**
+     * The extracted fields of the secret's data, or of data.data for kv-v2. Null if the response had no data.
+     */
+    public Map<String, String> getData() {
         return data;
     }
 
     public String[] getWarnings() {
         return warnings;
     }
+
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    /**
+     * The numeric "ttl" field of the secret's data, or 0 if there was none.
+     */
+    public long getDataTtl() {
+        return dataTtl;
+    }
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>Reads a Vault secret response with a streaming {@link JsonReader}, without materialising the JSON tree.</p>
+ *
+ * <p>Only the requested fields of the secret's data are kept, everything else (kv-v2 metadata, unrelated fields) is
+ * skipped as it is read. When data contains a nested "data" object, as kv-v2 responses do, the fields are taken from
+ * the nested object instead.</p>
+ */
+final class VaultSecretReader {
+    private static final String DATA = "data";
+    private static final String WARNINGS = "warnings";
+    private static final String LEASE_DURATION = "lease_duration";
+    private static final String TTL = "ttl";
+
+    private VaultSecretReader() {
+    }
+
+    /**
+     * @param reader The response body.
+     * @param fields The data fields to keep.
+     * @return The secret, whose data is null if the response contained none.
+     */
+    static VaultSecret read(Reader reader, Set<String> fields) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        // Vault always sends strict JSON, but stay as permissive as Gson.fromJson has always been.
+        json.setLenient(true);
+
+        try {
+            json.peek();
+        } catch (EOFException e) {
+            // An empty body carries no data.
+            return new VaultSecret(null, null, 0, 0);
+        }
+        expect(json, JsonToken.BEGIN_OBJECT, "response");
+
+        Map<String, String> data = null;
+        String[] warnings = null;
+        long leaseDuration = 0;
+        long dataTtl = 0;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (name) {
+                case DATA:
+                    expect(json, JsonToken.BEGIN_OBJECT, DATA);
+                    DataReader dataReader = new DataReader(fields);
+                    dataReader.read(json);
+                    data = dataReader.result();
+                    dataTtl = dataReader.ttl;
+                    break;
+                case WARNINGS:
+                    warnings = readStrings(json);
+                    break;
+                case LEASE_DURATION:
+                    leaseDuration = json.nextLong();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+
+        return new VaultSecret(data, warnings, leaseDuration, dataTtl);
+    }
+
+    private static final class DataReader {
+        private final Set<String> fields;
+        private final Map<String, String> topLevel = new HashMap<>();
+        private Map<String, String> nested;
+        private long ttl;
+
+        DataReader(Set<String> fields) {
+            this.fields = fields;
+        }
+
+        void read(JsonReader json) throws IOException {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                JsonToken token = json.peek();
+                if (name.equals(DATA) && token == JsonToken.BEGIN_OBJECT) {
+                    // kv-v2 nests the secret inside data.data.
+                    nested = new HashMap<>();
+                    readFields(json, nested);
+                } else if (name.equals(TTL) && token == JsonToken.NUMBER) {
+                    // Some secret engines (e.g. Active Directory) report the remaining validity of the secret here.
+                    ttl = json.nextLong();
+                } else if (fields.contains(name)) {
+                    putField(json, name, topLevel);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+
+        Map<String, String> result() {
+            return nested != null ? nested : topLevel;
+        }
+
+        private void readFields(JsonReader json, Map<String, String> into) throws IOException {
+            json.beginObject();
+            while (json.hasNext()) {
+                String name = json.nextName();
+                if (fields.contains(name)) {
+                    putField(json, name, into);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+    }
+
+    private static void putField(JsonReader json, String name, Map<String, String> into) throws IOException {
+        switch (json.peek()) {
+            case STRING:
+            case NUMBER:
+                into.put(name, json.nextString());
+                break;
+            case BOOLEAN:
+                into.put(name, Boolean.toString(json.nextBoolean()));
+                break;
+            case NULL:
+                json.nextNull();
+                into.remove(name);
+                break;
+            default:
+                throw new JsonSyntaxException(String.format("Expected field '%s' in Vault secret to be a string but was %s", name, json.peek()));
+        }
+    }
+
+    private static String[] readStrings(JsonReader json) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_ARRAY) {
+            json.skipValue();
+            return null;
+        }
+
+        List<String> values = new ArrayList<>();
+        json.beginArray();
+        while (json.hasNext()) {
+            if (json.peek() == JsonToken.STRING) {
+                values.add(json.nextString());
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endArray();
+        return values.toArray(new String[0]);
+    }
+
+    private static void expect(JsonReader json, JsonToken expected, String what) throws IOException {
+        JsonToken actual = json.peek();
+        if (actual != expected) {
+            throw new JsonSyntaxException(String.format("Expected %s in Vault secret to be %s but was %s", what, expected, actual));
+        }
+    }
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Virtual threads, where the JVM has them.</p>
+ *
+ * <p>This is the Java 8 version, which has none. The JAR is a multi-release JAR: on Java 21 and later the version in
+ * src/main/java21, packaged under META-INF/versions/21, is loaded instead.</p>
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return A factory of virtual threads named after name, or null as this JVM has no virtual threads
+     */
+    static ThreadFactory threadFactory(String name) {
+        return null;
+    }
+}
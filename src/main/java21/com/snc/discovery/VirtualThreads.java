@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>Virtual threads, where the JVM has them.</p>
+ *
+ * <p>This is the Java 21 version, packaged under META-INF/versions/21 of the multi-release JAR. A task blocked on I/O
+ * to Vault Agent only holds a virtual thread, so lookups can fan out far wider than a platform thread pool allows.</p>
+ */
+final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * @return A factory of virtual threads named after name
+     */
+    static ThreadFactory threadFactory(String name) {
+        return Thread.ofVirtual().name(name + "-", 1).factory();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class AccessProfileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testMostUsedIdsComeFirst() {
+        AccessProfile profile = new AccessProfile(folder.getRoot().toPath().resolve("profile"));
+        record(profile, "kv/rare", 1);
+        record(profile, "kv/hot", 5);
+        record(profile, "kv/warm", 3);
+
+        Assert.assertEquals(Arrays.asList("kv/hot", "kv/warm", "kv/rare"), profile.top(10));
+        Assert.assertEquals(Arrays.asList("kv/hot", "kv/warm"), profile.top(2));
+        Assert.assertEquals(Collections.emptyList(), profile.top(0));
+    }
+
+    @Test
+    public void testCountsAreHalvedOnLoad() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("dir/profile");
+        AccessProfile profile = new AccessProfile(path);
+        // A missing file is an empty profile.
+        profile.load();
+        record(profile, "kv/hot", 8);
+        record(profile, "kv/once", 1);
+        profile.save();
+
+        // Only ids and counts are written.
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        Assert.assertTrue(lines.get(0).startsWith("#"));
+        Assert.assertEquals(Arrays.asList("8\tkv/hot", "1\tkv/once"), lines.subList(1, lines.size()));
+
+        AccessProfile restarted = new AccessProfile(path);
+        restarted.load();
+        record(restarted, "kv/new", 5);
+        // kv/hot carries over 4 of its 8, kv/once halves to nothing and is dropped.
+        Assert.assertEquals(Arrays.asList("kv/new", "kv/hot"), restarted.top(10));
+    }
+
+    @Test
+    public void testSavesOnlyWhenChanged() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("profile");
+        AccessProfile profile = new AccessProfile(path);
+        profile.save();
+        Assert.assertFalse(Files.exists(path));
+
+        profile.record("kv/hot");
+        profile.save();
+        Files.delete(path);
+        profile.save();
+        Assert.assertFalse(Files.exists(path));
+
+        profile.record("kv/hot");
+        profile.save();
+        Assert.assertTrue(Files.exists(path));
+    }
+
+    @Test
+    public void testSkipsIdsThatCanNotBeSaved() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("profile");
+        Files.write(path, Arrays.asList("# header", "not a count\tkv/bad", "no tab", "4\tkv/good"), StandardCharsets.UTF_8);
+        AccessProfile profile = new AccessProfile(path);
+        profile.load();
+        profile.record("kv/line\nbreak");
+        Assert.assertEquals(Collections.singletonList("kv/good"), profile.top(10));
+
+        for (int i = 0; i < AccessProfile.MAX_IDS + 10; i++) {
+            profile.record("kv/" + i);
+        }
+        Assert.assertEquals(AccessProfile.MAX_IDS, profile.top(Integer.MAX_VALUE).size());
+    }
+
+    private static void record(AccessProfile profile, String id, int times) {
+        for (int i = 0; i < times; i++) {
+            profile.record(id);
+        }
+    }
+}
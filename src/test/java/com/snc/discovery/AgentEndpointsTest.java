@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AgentEndpointsTest {
+    private static final List<String> ADDRESSES = Arrays.asList("http://agent-1:8200", "http://agent-2:8200", "http://agent-3:8200");
+
+    @Test
+    public void testRequestsGoToTheLeastOutstandingEndpoint() {
+        AgentEndpoints endpoints = new AgentEndpoints();
+        AgentEndpoints.Endpoint first = endpoints.acquire(ADDRESSES, null, 0, 0);
+        AgentEndpoints.Endpoint second = endpoints.acquire(ADDRESSES, null, 0, 0);
+        AgentEndpoints.Endpoint third = endpoints.acquire(ADDRESSES, null, 0, 0);
+        Assert.assertEquals(3, new HashSet<>(Arrays.asList(first, second, third)).size());
+
+        // Only the second has nothing outstanding now.
+        second.release();
+        Assert.assertSame(second, endpoints.acquire(ADDRESSES, null, 0, 0));
+        Assert.assertEquals(1, second.getOutstanding());
+    }
+
+    @Test
+    public void testRetriesAvoidTheFailedEndpoint() {
+        AgentEndpoints endpoints = new AgentEndpoints();
+        List<String> addresses = ADDRESSES.subList(0, 2);
+        for (int i = 0; i < 10; i++) {
+            AgentEndpoints.Endpoint failed = endpoints.acquire(addresses, null, 0, 0);
+            failed.release();
+            AgentEndpoints.Endpoint retry = endpoints.acquire(addresses, failed, 0, 0);
+            Assert.assertNotSame(failed, retry);
+            retry.release();
+        }
+
+        // With a single address there is nothing else to try.
+        List<String> single = Collections.singletonList(ADDRESSES.get(0));
+        AgentEndpoints.Endpoint only = endpoints.acquire(single, null, 0, 0);
+        only.release();
+        Assert.assertSame(only, endpoints.acquire(single, only, 0, 0));
+    }
+
+    @Test
+    public void testFailoverOnlyGoesToUntriedEndpoints() {
+        AgentEndpoints endpoints = new AgentEndpoints();
+        List<AgentEndpoints.Endpoint> tried = new ArrayList<>();
+        for (int i = 0; i < ADDRESSES.size(); i++) {
+            AgentEndpoints.Endpoint other = endpoints.acquireOther(ADDRESSES, tried, 0, 0);
+            Assert.assertFalse(tried.contains(other));
+            other.release();
+            tried.add(other);
+        }
+        Assert.assertNull(endpoints.acquireOther(ADDRESSES, tried, 0, 0));
+
+        // An ejected endpoint is not failed over to.
+        AtomicLong now = new AtomicLong();
+        AgentEndpoints ejecting = new AgentEndpoints(now::get);
+        List<String> addresses = ADDRESSES.subList(0, 2);
+        AgentEndpoints.Endpoint failed = ejecting.acquire(addresses, null, 1, 100);
+        failed.release();
+        failed.getBreaker().onFailure(1);
+        AgentEndpoints.Endpoint other = ejecting.acquire(addresses, failed, 1, 100);
+        other.release();
+        other.getBreaker().onFailure(1);
+        Assert.assertNull(ejecting.acquireOther(addresses, Collections.singletonList(other), 1, 100));
+    }
+
+    @Test
+    public void testFailingEndpointsAreEjectedAndReinstated() {
+        AtomicLong now = new AtomicLong();
+        AgentEndpoints endpoints = new AgentEndpoints(now::get);
+        List<String> addresses = ADDRESSES.subList(0, 2);
+
+        AgentEndpoints.Endpoint failing = endpoints.acquire(addresses, null, 1, 100);
+        failing.release();
+        Assert.assertTrue(failing.getBreaker().onFailure(1));
+        for (int i = 0; i < 10; i++) {
+            AgentEndpoints.Endpoint healthy = endpoints.acquire(addresses, null, 1, 100);
+            Assert.assertNotSame(failing, healthy);
+            healthy.release();
+        }
+
+        // Once the open time has passed, the ejected endpoint gets a single probe, even though it is the one to avoid.
+        now.set(100);
+        AgentEndpoints.Endpoint healthy = endpoints.acquire(addresses, failing, 1, 100);
+        AgentEndpoints.Endpoint probe = endpoints.acquire(addresses, healthy, 1, 100);
+        Assert.assertSame(failing, probe);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, failing.getBreaker().getState());
+        Assert.assertSame(healthy, endpoints.acquire(addresses, null, 1, 100));
+        probe.release();
+        Assert.assertTrue(probe.getBreaker().onSuccess());
+        Assert.assertTrue(probe.getBreaker().isAvailable(1, 100));
+    }
+
+    @Test
+    public void testNoEndpointWhenAllAreEjected() {
+        AgentEndpoints endpoints = new AgentEndpoints(() -> 0);
+        List<String> addresses = ADDRESSES.subList(0, 2);
+        for (int i = 0; i < 2; i++) {
+            AgentEndpoints.Endpoint endpoint = endpoints.acquire(addresses, null, 1, 100);
+            endpoint.release();
+            endpoint.getBreaker().onFailure(1);
+        }
+        Assert.assertNull(endpoints.acquire(addresses, null, 1, 100));
+    }
+}
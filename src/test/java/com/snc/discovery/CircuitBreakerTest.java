@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class CircuitBreakerTest {
+    private static final int THRESHOLD = 3;
+    private static final long OPEN_NANOS = 1000;
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(new AtomicLong()::get);
+        Assert.assertFalse(fail(breaker));
+        Assert.assertFalse(fail(breaker));
+        // A success resets the count.
+        Assert.assertTrue(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+        breaker.onSuccess();
+        Assert.assertFalse(fail(breaker));
+        Assert.assertFalse(fail(breaker));
+        Assert.assertTrue(fail(breaker));
+
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+    }
+
+    @Test
+    public void testLetsASingleProbeThroughOnceOpenTimeHasPassed() {
+        AtomicLong now = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(now::get);
+        for (int i = 0; i < THRESHOLD; i++) {
+            fail(breaker);
+        }
+
+        now.set(OPEN_NANOS - 1);
+        Assert.assertFalse(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+        now.set(OPEN_NANOS);
+        Assert.assertTrue(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+
+        // A failed probe opens the breaker for another open duration.
+        Assert.assertTrue(breaker.onFailure(THRESHOLD));
+        now.set(2 * OPEN_NANOS - 1);
+        Assert.assertFalse(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+        now.set(2 * OPEN_NANOS);
+        Assert.assertTrue(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+
+        // A successful probe closes it.
+        breaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+    }
+
+    @Test
+    public void testAbandonedProbeLetsAnotherProbeThrough() {
+        AtomicLong now = new AtomicLong();
+        CircuitBreaker breaker = new CircuitBreaker(now::get);
+        for (int i = 0; i < THRESHOLD; i++) {
+            fail(breaker);
+        }
+        now.set(OPEN_NANOS);
+        Assert.assertTrue(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+        Assert.assertFalse(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+
+        breaker.onAbandoned();
+        Assert.assertTrue(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testDisabledWithoutThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(new AtomicLong()::get);
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(breaker.tryAcquire(0, OPEN_NANOS));
+            Assert.assertFalse(breaker.onFailure(0));
+        }
+    }
+
+    private static boolean fail(CircuitBreaker breaker) {
+        Assert.assertTrue(breaker.tryAcquire(THRESHOLD, OPEN_NANOS));
+        return breaker.onFailure(THRESHOLD);
+    }
+}
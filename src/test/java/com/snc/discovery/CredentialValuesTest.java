@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.snc.discovery.CredentialResolver.*;
+
+public class CredentialValuesTest {
+    @Test
+    public void testBehavesLikeAHashMap() {
+        CredentialValues values = new CredentialValues.Builder()
+            .put(VAL_PSWD, "my-password")
+            .put(VAL_USER, "my-user")
+            .put(VAL_PKEY, null)
+            .build();
+        Map<String, String> expected = new HashMap<>();
+        expected.put(VAL_USER, "my-user");
+        expected.put(VAL_PSWD, "my-password");
+        expected.put(VAL_PKEY, null);
+
+        Assert.assertEquals(expected, values);
+        Assert.assertEquals(values, expected);
+        Assert.assertEquals(expected.hashCode(), values.hashCode());
+        Assert.assertEquals(expected.toString().length(), values.toString().length());
+        Assert.assertEquals(3, values.size());
+        Assert.assertEquals("my-user", values.get(VAL_USER));
+        Assert.assertTrue(values.containsKey(VAL_PKEY));
+        Assert.assertNull(values.get(VAL_PKEY));
+        Assert.assertFalse(values.containsKey(VAL_BEARER));
+        Assert.assertNull(values.get("unrelated"));
+        Assert.assertNull(values.get(42));
+        Assert.assertTrue(values.containsValue("my-password"));
+        Assert.assertTrue(values.containsValue(null));
+        Assert.assertFalse(values.containsValue("unrelated"));
+        Assert.assertEquals("fallback", values.getOrDefault(VAL_BEARER, "fallback"));
+
+        // Iteration follows the order of ExtractionPlan.FIELDS.
+        Assert.assertEquals(Arrays.asList(VAL_USER, VAL_PSWD, VAL_PKEY), new ArrayList<>(values.keySet()));
+        List<String> forEach = new ArrayList<>();
+        values.forEach((key, value) -> forEach.add(key + "=" + value));
+        Assert.assertEquals(Arrays.asList("user=my-user", "pswd=my-password", "pkey=null"), forEach);
+
+        Assert.assertTrue(CredentialValues.EMPTY.isEmpty());
+        Assert.assertSame(CredentialValues.EMPTY, new CredentialValues.Builder().build());
+        Assert.assertEquals(new HashMap<>(), CredentialValues.EMPTY);
+    }
+
+    @Test
+    public void testIsUnmodifiable() {
+        CredentialValues values = new CredentialValues.Builder().put(VAL_USER, "my-user").build();
+        Assert.assertThrows(UnsupportedOperationException.class, () -> values.put(VAL_PSWD, "my-password"));
+        Assert.assertThrows(UnsupportedOperationException.class, () -> values.remove(VAL_USER));
+        Assert.assertThrows(UnsupportedOperationException.class, values::clear);
+        Assert.assertThrows(UnsupportedOperationException.class, () -> values.entrySet().iterator().next().setValue("other"));
+        Iterator<String> keys = values.keySet().iterator();
+        keys.next();
+        Assert.assertThrows(UnsupportedOperationException.class, keys::remove);
+        Assert.assertEquals("my-user", values.get(VAL_USER));
+
+        Assert.assertThrows(IllegalArgumentException.class, () -> new CredentialValues.Builder().put("unrelated", "value"));
+    }
+
+    @Test
+    public void testSerializable() throws IOException, ClassNotFoundException {
+        CredentialValues values = new CredentialValues.Builder().put(VAL_BEARER, "my-token").build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(values);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals(values, in.readObject());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DeadlineTest {
+    @Test
+    public void testTimeoutsAreCappedAtTheTimeRemaining() throws Deadline.ExceededException {
+        AtomicLong now = new AtomicLong();
+        Deadline deadline = Deadline.after(0, 1000, now::get);
+
+        Assert.assertEquals(1000, deadline.remainingMillis());
+        Assert.assertEquals(500, deadline.cap(500));
+        Assert.assertEquals(1000, deadline.cap(5000));
+        Assert.assertEquals(1000, deadline.cap(0));
+
+        now.set(TimeUnit.MILLISECONDS.toNanos(999) + 1);
+        // Rounded up, as a timeout of 0 would mean none.
+        Assert.assertEquals(1, deadline.remainingMillis());
+        Assert.assertEquals(1, deadline.cap(500));
+        deadline.check("not yet");
+
+        now.set(TimeUnit.MILLISECONDS.toNanos(1000));
+        Assert.assertEquals(0, deadline.remainingMillis());
+        Assert.assertEquals(1, deadline.cap(500));
+        Exception exception = Assert.assertThrows(Deadline.ExceededException.class, () -> deadline.check("too late"));
+        Assert.assertEquals("too late", exception.getMessage());
+    }
+
+    @Test
+    public void testNoDeadline() throws Deadline.ExceededException {
+        Deadline deadline = Deadline.after(0);
+        Assert.assertTrue(deadline.isNone());
+        Assert.assertEquals(0, deadline.cap(0));
+        Assert.assertEquals(5000, deadline.cap(5000));
+        deadline.check("never");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ExtractionPlanTest {
+    @Test
+    public void testBuiltInAliasesArePreferredInOrder() {
+        Map<String, String> data = new HashMap<>();
+        data.put("username", "my-user");
+        data.put("access_key", "my-access-key");
+        data.put("password", "my-password");
+        data.put("unrelated", "ignored");
+
+        Map<String, String> result = ExtractionPlan.DEFAULT.extract(data);
+        Assert.assertEquals(2, result.size());
+        Assert.assertEquals("my-access-key", result.get(CredentialResolver.VAL_USER));
+        Assert.assertEquals("my-password", result.get(CredentialResolver.VAL_PSWD));
+        Assert.assertTrue(ExtractionPlan.DEFAULT.describeSources(data).startsWith("user=access_key, pswd=password, pkey=null"));
+    }
+
+    @Test
+    public void testExtraAliasesAreTriedAfterBuiltInOnes() {
+        ExtractionPlan plan = ExtractionPlan.compile(" user = login | user_name ,, pswd=pass");
+        Assert.assertTrue(plan.getSecretFields().containsAll(ExtractionPlan.DEFAULT.getSecretFields()));
+        Assert.assertTrue(plan.getSecretFields().contains("user_name"));
+        Assert.assertFalse(ExtractionPlan.DEFAULT.getSecretFields().contains("user_name"));
+
+        Map<String, String> data = new HashMap<>();
+        data.put("user_name", "my-user");
+        data.put("pass", "my-password");
+        data.put("password", "built-in-password");
+        Map<String, String> result = plan.extract(data);
+        Assert.assertEquals("my-user", result.get(CredentialResolver.VAL_USER));
+        Assert.assertEquals("built-in-password", result.get(CredentialResolver.VAL_PSWD));
+
+        Assert.assertSame(ExtractionPlan.DEFAULT, ExtractionPlan.compile(" "));
+        Assert.assertThrows(IllegalArgumentException.class, () -> ExtractionPlan.compile("username=login"));
+        Assert.assertThrows(IllegalArgumentException.class, () -> ExtractionPlan.compile("user"));
+    }
+
+    @Test
+    public void testMasks() {
+        for (int i = 0; i < ExtractionPlan.FIELDS.length; i++) {
+            Assert.assertEquals(i, ExtractionPlan.index(ExtractionPlan.FIELDS[i]));
+        }
+        Assert.assertEquals(-1, ExtractionPlan.index("unrelated"));
+
+        Map<String, String> result = new HashMap<>();
+        result.put(CredentialResolver.VAL_USER, "my-user");
+        result.put(CredentialResolver.VAL_PKEY, "my-key");
+        result.put("unrelated", "ignored");
+        int userAndKey = ExtractionPlan.mask(CredentialResolver.VAL_USER, CredentialResolver.VAL_PKEY);
+        Assert.assertEquals(0b101, userAndKey);
+        Assert.assertEquals(userAndKey, ExtractionPlan.presentMask(result, (1 << ExtractionPlan.FIELDS.length) - 1));
+        Assert.assertEquals(0b1, ExtractionPlan.presentMask(result, ExtractionPlan.mask(CredentialResolver.VAL_USER, CredentialResolver.VAL_PSWD)));
+    }
+}
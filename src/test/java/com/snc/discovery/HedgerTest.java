@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+public class HedgerTest {
+    private static final long DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final Predicate<Throwable> NOTHING_FINAL = e -> false;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Hedger hedger = new Hedger(executor);
+    private final ResolverMetrics metrics = ResolverMetrics.get();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFastRequestIsNotHedged() throws IOException {
+        FakeAttempt primary = new FakeAttempt("primary", 0, null);
+        Assert.assertEquals("primary", hedger.send(primary, TimeUnit.SECONDS.toNanos(10), 100, () -> {
+            throw new AssertionError("hedged a fast request");
+        }, NOTHING_FINAL));
+        Assert.assertFalse(primary.aborted);
+    }
+
+    @Test
+    public void testDelayFollowsRecentLatencies() {
+        AtomicLong now = new AtomicLong();
+        Hedger windowed = new Hedger(executor, now::get);
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+        long slow = TimeUnit.MILLISECONDS.toNanos(50);
+        for (int i = 0; i < Hedger.MIN_SAMPLES - 1; i++) {
+            windowed.recordLatency(fast);
+        }
+        Assert.assertEquals(0, windowed.delayNanos(50, 0));
+        windowed.recordLatency(fast);
+        Assert.assertEquals(fast, windowed.delayNanos(50, 0));
+        Assert.assertEquals(DELAY_NANOS, windowed.delayNanos(50, DELAY_NANOS));
+
+        // The previous window still counts.
+        now.addAndGet(Hedger.WINDOW_NANOS);
+        for (int i = 0; i < Hedger.MIN_SAMPLES; i++) {
+            windowed.recordLatency(slow);
+        }
+        long delay = windowed.delayNanos(50, 0);
+        // Within the 1/16th precision of the histogram.
+        Assert.assertTrue("Expected about " + fast + " but got " + delay, delay >= fast && delay <= fast + fast / 16);
+        Assert.assertEquals(slow, windowed.delayNanos(51, 0));
+
+        // Once Vault Agent has slowed down for a whole window, the fast requests before no longer count.
+        now.addAndGet(Hedger.WINDOW_NANOS);
+        Assert.assertEquals(slow, windowed.delayNanos(50, 0));
+
+        // After a quiet spell there is nothing recent to go by.
+        now.addAndGet(2 * Hedger.WINDOW_NANOS);
+        Assert.assertEquals(0, windowed.delayNanos(50, 0));
+    }
+
+    @Test
+    public void testHedgeWinsOverSlowRequestWhichIsAborted() throws IOException {
+        long sent = metrics.getHedgesSent();
+        long won = metrics.getHedgesWon();
+        FakeAttempt primary = new FakeAttempt("primary", Long.MAX_VALUE, null);
+        FakeAttempt hedge = new FakeAttempt("hedge", 0, null);
+
+        Assert.assertEquals("hedge", hedger.send(primary, DELAY_NANOS, 100, () -> hedge, NOTHING_FINAL));
+        Assert.assertTrue(primary.aborted);
+        Assert.assertFalse(hedge.aborted);
+        Assert.assertEquals(sent + 1, metrics.getHedgesSent());
+        Assert.assertEquals(won + 1, metrics.getHedgesWon());
+    }
+
+    @Test
+    public void testHedgesAreLimitedByTheBudget() throws IOException {
+        AtomicInteger hedges = new AtomicInteger();
+        // Each request earns a tenth of a hedge, so only the tenth slow request is hedged.
+        for (int i = 1; i <= 11; i++) {
+            String value = hedger.send(new FakeAttempt("primary", 50, null), DELAY_NANOS, 10, () -> {
+                hedges.incrementAndGet();
+                return new FakeAttempt("hedge", 0, null);
+            }, NOTHING_FINAL);
+            Assert.assertEquals(i == 10 ? "hedge" : "primary", value);
+        }
+        Assert.assertEquals(1, hedges.get());
+    }
+
+    @Test
+    public void testFailureWaitsForTheOtherRequestUnlessFinal() throws IOException {
+        // A transient failure of the hedge leaves the slow request to answer.
+        FakeAttempt primary = new FakeAttempt("primary", 100, null);
+        Assert.assertEquals("primary", hedger.send(primary, DELAY_NANOS, 100,
+            () -> new FakeAttempt(null, 0, new IOException("connection reset")), NOTHING_FINAL));
+
+        // A final failure, e.g. a 404 the slow request would get too, is thrown right away.
+        FakeAttempt slow = new FakeAttempt("primary", Long.MAX_VALUE, null);
+        IOException notFound = new IOException("not found");
+        IOException thrown = Assert.assertThrows(IOException.class, () -> hedger.send(slow, DELAY_NANOS, 100,
+            () -> new FakeAttempt(null, 0, notFound), e -> e == notFound));
+        Assert.assertSame(notFound, thrown);
+        Assert.assertTrue(slow.aborted);
+    }
+
+    // A request answering after delayMillis, or failing as soon as it is aborted.
+    private static final class FakeAttempt implements Hedger.Attempt<String> {
+        private final String value;
+        private final long delayMillis;
+        private final IOException failure;
+        private final CountDownLatch abort = new CountDownLatch(1);
+        private volatile boolean aborted;
+
+        FakeAttempt(String value, long delayMillis, IOException failure) {
+            this.value = value;
+            this.delayMillis = delayMillis;
+            this.failure = failure;
+        }
+
+        @Override
+        public String send() throws IOException {
+            try {
+                if (abort.await(delayMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("aborted");
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+            abort.countDown();
+        }
+    }
+}
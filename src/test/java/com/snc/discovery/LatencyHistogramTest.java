@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketsCoverEveryValue() {
+        int previous = -1;
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            Assert.assertTrue(bucket == previous || bucket == previous + 1);
+            Assert.assertTrue(value <= LatencyHistogram.highestValue(bucket));
+            previous = bucket;
+        }
+        Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LatencyHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1000), snapshot.getMax());
+        Assert.assertEquals(500_500, snapshot.getMean(), 0.001);
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(500), snapshot.getValueAtPercentile(50));
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(990), snapshot.getValueAtPercentile(99));
+        Assert.assertEquals(snapshot.getMax(), snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testCombinedSnapshots() {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            fast.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        for (int i = 0; i < 10; i++) {
+            slow.record(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+
+        LatencyHistogram.Snapshot combined = fast.snapshot().plus(slow.snapshot());
+        Assert.assertEquals(100, combined.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), combined.getMax());
+        Assert.assertEquals(1_090_000, combined.getMean(), 0.001);
+        assertWithinPrecision(TimeUnit.MICROSECONDS.toNanos(100), combined.getValueAtPercentile(90));
+        assertWithinPrecision(TimeUnit.MILLISECONDS.toNanos(10), combined.getValueAtPercentile(91));
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        Assert.assertEquals(0, snapshot.getCount());
+        Assert.assertEquals(0, snapshot.getValueAtPercentile(99));
+    }
+
+    private static void assertWithinPrecision(long expected, long actual) {
+        Assert.assertTrue(actual + " is not within 1/16th of " + expected,
+            actual >= expected && actual <= expected + expected / 16);
+    }
+}
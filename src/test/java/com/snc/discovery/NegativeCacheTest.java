@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class NegativeCacheTest {
+    @Test
+    public void testFailuresAreRememberedUntilTheyExpire() {
+        AtomicLong now = new AtomicLong();
+        NegativeCache cache = new NegativeCache(now::get);
+        HttpResponseException notFound = new HttpResponseException(404, "Failed to query Vault URL: http://localhost/v1/kv/missing.");
+
+        cache.put("kv/missing", notFound, 100, 10);
+        HttpResponseException cached = cache.get("kv/missing");
+        Assert.assertNotSame(notFound, cached);
+        Assert.assertEquals(404, cached.getStatusCode());
+        Assert.assertEquals(notFound.getMessage(), cached.getMessage());
+
+        now.set(99);
+        Assert.assertNotNull(cache.get("kv/missing"));
+        now.set(100);
+        Assert.assertNull(cache.get("kv/missing"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOldestAndExpiredEntriesAreDropped() {
+        AtomicLong now = new AtomicLong();
+        NegativeCache cache = new NegativeCache(now::get);
+        HttpResponseException forbidden = new HttpResponseException(403, "permission denied");
+
+        cache.put("a", forbidden, 100, 2);
+        cache.put("b", forbidden, 100, 2);
+        cache.put("c", forbidden, 100, 2);
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+
+        now.set(100);
+        cache.put("d", forbidden, 100, 2);
+        Assert.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testOnlyMissingAndForbiddenAreCacheable() {
+        Assert.assertTrue(NegativeCache.isCacheable(new HttpResponseException(403, "")));
+        Assert.assertTrue(NegativeCache.isCacheable(new HttpResponseException(404, "")));
+        Assert.assertFalse(NegativeCache.isCacheable(new HttpResponseException(500, "")));
+        Assert.assertFalse(NegativeCache.isCacheable(new HttpResponseException(429, "")));
+        Assert.assertFalse(NegativeCache.isCacheable(new IOException("connection refused")));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResolverExecutorsTest {
+    @Test
+    public void testBoundedExecutorLimitsConcurrency() throws Exception {
+        assertBounded(ResolverExecutors.newBoundedExecutor("test-bounded", 3));
+    }
+
+    @Test
+    public void testBoundedPlatformExecutorLimitsConcurrency() throws Exception {
+        assertBounded(ResolverExecutors.newBoundedPlatformExecutor("test-bounded-platform", 3));
+    }
+
+    @Test
+    public void testBoundedThreadPerTaskExecutorLimitsConcurrency() throws Exception {
+        assertBounded(ResolverExecutors.newBoundedThreadPerTaskExecutor(ResolverExecutors.daemonThreadFactory("test-thread-per-task"), 3));
+    }
+
+    @Test
+    public void testThreadPerTaskExecutorRejectsTasksOnceShutDown() throws Exception {
+        ExecutorService executor = ResolverExecutors.newBoundedThreadPerTaskExecutor(ResolverExecutors.daemonThreadFactory("test-thread-per-task"), 1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        Future<?> running = executor.submit(() -> {
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                blocked.countDown();
+            }
+        });
+        executor.shutdown();
+        Assert.assertTrue(executor.isShutdown());
+        Assert.assertFalse(executor.awaitTermination(50, TimeUnit.MILLISECONDS));
+        Assert.assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+
+        executor.shutdownNow();
+        Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(executor.isTerminated());
+        Assert.assertTrue(running.isDone());
+    }
+
+    private static void assertBounded(ExecutorService executor) throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(executor.submit(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(3, maxRunning.get());
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+public class ResolverLogTest {
+    private final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+    private PrintStream stderr;
+
+    @Before
+    public void captureStderr() {
+        stderr = System.err;
+        System.setErr(new PrintStream(captured, true));
+    }
+
+    @After
+    public void restoreStderr() {
+        System.setErr(stderr);
+        ResolverLog.setLevel(ResolverLog.DEFAULT_LEVEL);
+    }
+
+    @Test
+    public void testMessagesAreFormattedAndWrittenInTheBackground() throws InterruptedException {
+        ResolverLog.info("Successfully queried Vault for credential id: %s", "kv/logged");
+        awaitOutput("Successfully queried Vault for credential id: kv/logged");
+    }
+
+    @Test
+    public void testMessagesBelowTheLevelAreDiscarded() throws InterruptedException {
+        ResolverLog.setLevel(ResolverLog.Level.WARN);
+        Assert.assertFalse(ResolverLog.isEnabled(ResolverLog.Level.INFO));
+        ResolverLog.info("not logged");
+        ResolverLog.warn("logged at %s", "warn");
+        awaitOutput("logged at warn");
+        Assert.assertFalse(output().contains("not logged"));
+
+        ResolverLog.setLevel(ResolverLog.Level.DEBUG);
+        Assert.assertTrue(ResolverLog.isEnabled(ResolverLog.Level.DEBUG));
+    }
+
+    @Test
+    public void testParseLevel() {
+        Assert.assertEquals(ResolverLog.DEFAULT_LEVEL, ResolverLog.parseLevel(CredentialResolver.PROP_LOG_LEVEL, null));
+        Assert.assertEquals(ResolverLog.Level.DEBUG, ResolverLog.parseLevel(CredentialResolver.PROP_LOG_LEVEL, " Debug "));
+        Exception exception = Assert.assertThrows(RuntimeException.class,
+            () -> ResolverLog.parseLevel(CredentialResolver.PROP_LOG_LEVEL, "verbose"));
+        Assert.assertTrue(exception.getMessage().contains(String.format("MID server property %s must be one of", CredentialResolver.PROP_LOG_LEVEL)));
+    }
+
+    @Test
+    public void testMalformedMessageIsWrittenUnformatted() throws InterruptedException {
+        ResolverLog.info("%d credentials", "not a number");
+        awaitOutput("%d credentials");
+    }
+
+    private void awaitOutput(String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!output().contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(output(), output().contains(expected));
+    }
+
+    private String output() {
+        return new String(captured.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
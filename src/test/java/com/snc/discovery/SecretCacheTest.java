@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class SecretCacheTest {
+    @Test
+    public void testEntriesExpireAfterTheirTTL() {
+        AtomicLong now = new AtomicLong();
+        SecretCache cache = new SecretCache(10, now::get);
+        Map<String, String> values = Collections.singletonMap(CredentialResolver.VAL_USER, "my-user");
+
+        cache.put("kv/user", values, 100);
+        Assert.assertSame(values, cache.get("kv/user"));
+        now.set(99);
+        Assert.assertSame(values, cache.get("kv/user"));
+        now.set(100);
+        Assert.assertNull(cache.get("kv/user"));
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNonPositiveTTLIsNotCached() {
+        SecretCache cache = new SecretCache(10);
+        cache.put("kv/user", Collections.emptyMap(), 0);
+        Assert.assertNull(cache.get("kv/user"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvicted() {
+        SecretCache cache = new SecretCache(2);
+        Map<String, String> values = Collections.emptyMap();
+        cache.put("a", values, Long.MAX_VALUE / 2);
+        cache.put("b", values, Long.MAX_VALUE / 2);
+        cache.get("a");
+        cache.put("c", values, Long.MAX_VALUE / 2);
+
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+
+        cache.resize(1);
+        Assert.assertEquals(1, cache.size());
+        Assert.assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void testHotEntriesAreRefreshedAheadOfExpiry() {
+        AtomicLong now = new AtomicLong();
+        SecretCache cache = new SecretCache(10, now::get);
+        Map<String, String> values = Collections.emptyMap();
+        cache.put("hot", values, 100);
+        cache.put("cold", values, 100);
+        cache.get("hot");
+        cache.get("hot");
+        cache.get("cold");
+
+        now.set(79);
+        Assert.assertEquals(Collections.emptyList(), cache.refreshCandidates(0.2, 2));
+        now.set(80);
+        Assert.assertEquals(Collections.singletonList("hot"), cache.refreshCandidates(0.2, 2));
+        // Already being refreshed.
+        Assert.assertEquals(Collections.emptyList(), cache.refreshCandidates(0.2, 2));
+
+        cache.refreshFailed("hot");
+        Assert.assertEquals(Collections.singletonList("hot"), cache.refreshCandidates(0.2, 2));
+
+        // A refreshed entry starts over, with a new TTL and no hits.
+        cache.put("hot", values, 100);
+        now.set(180);
+        Assert.assertEquals(Collections.emptyList(), cache.refreshCandidates(0.2, 2));
+    }
+
+    @Test
+    public void testStaleEntriesAreRetained() {
+        AtomicLong now = new AtomicLong();
+        SecretCache cache = new SecretCache(10, now::get);
+        cache.retainStale(50);
+        Map<String, String> values = Collections.emptyMap();
+        cache.put("kv/user", values, 100);
+
+        Assert.assertSame(values, cache.getStale("kv/user"));
+        now.set(100);
+        Assert.assertNull(cache.get("kv/user"));
+        Assert.assertSame(values, cache.getStale("kv/user"));
+        Assert.assertTrue(cache.startRefresh("kv/user"));
+        Assert.assertFalse(cache.startRefresh("kv/user"));
+
+        now.set(150);
+        Assert.assertNull(cache.getStale("kv/user"));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertFalse(cache.startRefresh("kv/user"));
+    }
+
+    @Test
+    public void testOffHeapEntriesAreEncryptedAndZeroedOnEviction() {
+        List<Object> stored = new ArrayList<>();
+        SecretCache.Storage storage = new SecretCache.Storage() {
+            @Override
+            public Object store(Map<String, String> values) {
+                Object sealed = OffHeapSecretStorage.INSTANCE.store(values);
+                stored.add(sealed);
+                return sealed;
+            }
+
+            @Override
+            public Map<String, String> load(Object sealed) {
+                return OffHeapSecretStorage.INSTANCE.load(sealed);
+            }
+
+            @Override
+            public void release(Object sealed) {
+                OffHeapSecretStorage.INSTANCE.release(sealed);
+            }
+        };
+        SecretCache cache = new SecretCache(1, storage);
+        Map<String, String> values = new HashMap<>();
+        values.put(CredentialResolver.VAL_USER, "my-user");
+        values.put(CredentialResolver.VAL_PSWD, "my-p\u00e4ssw\u20acrd\ud83d\udd11");
+        values.put(CredentialResolver.VAL_PKEY, null);
+
+        cache.put("a", values, Long.MAX_VALUE / 2);
+        Map<String, String> hit = cache.get("a");
+        Assert.assertEquals(values, hit);
+        Assert.assertNotSame(values, hit);
+        Assert.assertFalse(OffHeapSecretStorage.isZeroed(stored.get(0)));
+
+        cache.put("b", values, Long.MAX_VALUE / 2);
+        Assert.assertTrue(OffHeapSecretStorage.isZeroed(stored.get(0)));
+        Assert.assertNull(OffHeapSecretStorage.INSTANCE.load(stored.get(0)));
+        Assert.assertEquals(values, cache.get("b"));
+
+        cache.clear();
+        Assert.assertTrue(OffHeapSecretStorage.isZeroed(stored.get(1)));
+    }
+
+    @Test
+    public void testCacheTtlHonoursLeaseAndDataTtl() throws IOException {
+        Assert.assertEquals(300, CredentialResolver.cacheTtl(secret("{'lease_duration':0,'data':{}}"), 300));
+        Assert.assertEquals(60, CredentialResolver.cacheTtl(secret("{'lease_duration':60,'data':{}}"), 300));
+        Assert.assertEquals(300, CredentialResolver.cacheTtl(secret("{'lease_duration':2764800,'data':{}}"), 300));
+        Assert.assertEquals(42, CredentialResolver.cacheTtl(secret("{'lease_duration':60,'data':{'ttl':42}}"), 300));
+        Assert.assertEquals(60, CredentialResolver.cacheTtl(secret("{'lease_duration':60,'data':{'ttl':'1h'}}"), 300));
+    }
+
+    private static VaultSecret secret(String json) throws IOException {
+        return VaultSecretReader.read(new StringReader(json), Collections.emptySet());
+    }
+}
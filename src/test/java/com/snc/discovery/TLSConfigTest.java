@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) HashiCorp, Inc.
+ * SPDX-License-Identifier: MPL-2.0
+ */
+
+package com.snc.discovery;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Scanner;
+import java.util.Set;
+
+public class TLSConfigTest {
+    private static final String CA_PEM = readResource("ca.pem");
+
+    @Test
+    public void testSslContextIsCachedPerPem() throws TLSConfig.TLSException {
+        SSLContext first = new TLSConfig().pemUTF8(CA_PEM).build().getSslContext();
+        Assert.assertNotNull(first);
+        Assert.assertSame(first, new TLSConfig().verify(true).pemUTF8(CA_PEM).build().getSslContext());
+        // An equal but distinct PEM string hits the same entry.
+        Assert.assertSame(first, new TLSConfig().pemUTF8(new String(CA_PEM.toCharArray())).build().getSslContext());
+
+        TLSConfig.invalidate(CA_PEM);
+        SSLContext rebuilt = new TLSConfig().pemUTF8(CA_PEM).build().getSslContext();
+        Assert.assertNotSame(first, rebuilt);
+        Assert.assertSame(rebuilt, new TLSConfig().pemUTF8(CA_PEM).build().getSslContext());
+    }
+
+    @Test
+    public void testBundleTrustsEveryCertificate() throws Exception {
+        KeyStore single = new TLSConfig().pemUTF8(CA_PEM).build().getTrustStore();
+        Assert.assertEquals(1, single.size());
+
+        TLSConfig bundle = new TLSConfig().pemUTF8(readResource("ca-bundle.pem")).build();
+        Assert.assertNotNull(bundle.getSslContext());
+        Assert.assertEquals(2, bundle.getTrustStore().size());
+        Set<String> subjects = new HashSet<>();
+        for (String alias : Collections.list(bundle.getTrustStore().aliases())) {
+            subjects.add(((X509Certificate) bundle.getTrustStore().getCertificate(alias)).getSubjectX500Principal().getName());
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+            "CN=Vault Credential Resolver Test Root CA",
+            "CN=Vault Credential Resolver Test Intermediate CA")), subjects);
+    }
+
+    @Test
+    public void testSkipVerifyIgnoresPem() throws TLSConfig.TLSException {
+        SSLContext disabled = new TLSConfig().verify(false).build().getSslContext();
+        Assert.assertSame(disabled, new TLSConfig().verify(false).pemUTF8(CA_PEM).build().getSslContext());
+        Assert.assertNull(new TLSConfig().build().getSslContext());
+    }
+
+    @Test
+    public void testInvalidPem() {
+        Assert.assertThrows(TLSConfig.TLSException.class, () -> new TLSConfig().pemUTF8("not a certificate").build());
+    }
+
+    static String readResource(String path) {
+        InputStream resource = TLSConfigTest.class.getClassLoader().getResourceAsStream(path);
+        Assert.assertNotNull(resource);
+        return new Scanner(resource, "UTF-8").useDelimiter("\\A").next();
+    }
+}